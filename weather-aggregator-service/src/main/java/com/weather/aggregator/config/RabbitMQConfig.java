@@ -5,16 +5,26 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.DirectRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
 @Configuration
 public class RabbitMQConfig {
 
@@ -30,9 +40,87 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.routing-key.aggregated}")
     private String aggregatedRoutingKey;
 
+    @Value("${rabbitmq.routing-key.response}")
+    private String responseRoutingKey;
+
+    @Value("${rabbitmq.shards.count}")
+    private int shardCount;
+
+    @Value("${rabbitmq.shards.owned:}")
+    private String ownedShardsConfig;
+
+    /**
+     * Шарды очереди ответов, которые обслуживает этот экземпляр агрегатора.
+     * 
+     * Consumer отправляет ответ с ключом weather.response.{shard}, где
+     * shard = floorMod(correlationId.hashCode(), shardCount), поэтому все ответы
+     * одной корреляции попадают в одну очередь и к одному экземпляру.
+     * Пустое значение rabbitmq.shards.owned означает "все шарды".
+     */
+    @Bean
+    public List<Integer> ownedShards() {
+        if (ownedShardsConfig == null || ownedShardsConfig.isBlank()) {
+            return IntStream.range(0, shardCount).boxed().toList();
+        }
+        List<Integer> shards = Arrays.stream(ownedShardsConfig.split(","))
+                .map(String::trim)
+                .map(Integer::parseInt)
+                .toList();
+        shards.forEach(shard -> {
+            if (shard < 0 || shard >= shardCount) {
+                throw new IllegalStateException("Shard " + shard + " is out of range [0, " + shardCount + ")");
+            }
+        });
+        return shards;
+    }
+
+    /**
+     * Имена очередей шардов, которые слушает aggregateWeatherResponse().
+     */
+    @Bean
+    public String[] responseShardQueueNames(List<Integer> ownedShards) {
+        return ownedShards.stream()
+                .map(shard -> responseQueueName + "." + shard)
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Очереди и binding'и шардов ответов.
+     * x-single-active-consumer: если шард назначен нескольким экземплярам,
+     * сообщения получает только один из них, остальные остаются в резерве.
+     */
+    @Bean
+    public Declarables responseShardDeclarables(List<Integer> ownedShards, TopicExchange weatherExchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int shard : ownedShards) {
+            Queue queue = QueueBuilder.durable(responseQueueName + "." + shard)
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder
+                    .bind(queue)
+                    .to(weatherExchange)
+                    .with(responseRoutingKey + "." + shard));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * Фабрика слушателя шардов ответов: DirectMessageListenerContainer дает каждой
+     * очереди шарда собственного потребителя и поток доставки, поэтому шарды
+     * (а значит разные корреляции) агрегируются параллельно. Один потребитель
+     * на очередь - единственно возможный при x-single-active-consumer: больше
+     * потребителей на шард не сделают ответы одной корреляции параллельными,
+     * зато привязка шарда к одному экземпляру нужна, чтобы все ответы корреляции
+     * попадали в один aggregationStore.
+     */
     @Bean
-    public Queue responseQueue() {
-        return new Queue(responseQueueName, true);
+    public DirectRabbitListenerContainerFactory shardListenerContainerFactory(
+            DirectRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setConsumersPerQueue(1);
+        return factory;
     }
 
     @Bean
@@ -0,0 +1,46 @@
+package com.weather.aggregator.config;
+
+import com.weather.aggregator.timer.HashedWheelTimer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Таймер таймаутов агрегации.
+ * 
+ * Вместо периодического обхода всего aggregationStore каждая корреляция получает
+ * собственный таймаут в хешированном колесе: планирование и отмена O(1),
+ * а отчет о частичном результате уходит с точностью до одного тика,
+ * а не через ~30 секунд после дедлайна.
+ */
+@Configuration
+public class TimerConfig {
+
+    @Value("${aggregator.timer.tick:100ms}")
+    private Duration tick;
+
+    @Value("${aggregator.timer.wheel-size:512}")
+    private int wheelSize;
+
+    /**
+     * Поток, в котором отправляются частичные отчеты по таймауту.
+     * Поток колеса не ждет публикацию в RabbitMQ и не сдвигает тики.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService aggregationTimeoutExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aggregation-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Bean(destroyMethod = "stop")
+    public HashedWheelTimer aggregationTimer(ExecutorService aggregationTimeoutExecutor) {
+        return new HashedWheelTimer(tick, wheelSize, aggregationTimeoutExecutor, "aggregation-wheel");
+    }
+}
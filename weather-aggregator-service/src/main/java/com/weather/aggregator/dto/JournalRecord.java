@@ -0,0 +1,36 @@
+package com.weather.aggregator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Тело записи журнала агрегаций (AggregationJournal).
+ * Заполненные поля зависят от типа записи: открытие контекста, ответ или закрытие.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JournalRecord {
+
+    private String correlationId;
+
+    /**
+     * Открытие: адресат отчетов, число городов и время создания контекста
+     */
+    private String replyTo;
+    private int totalCities;
+    private LocalDateTime openedAt;
+
+    /**
+     * Ответ: полученный WeatherResponse
+     */
+    private WeatherResponse response;
+
+    /**
+     * Закрытие: время отправки отчета, по нему после рестарта восстанавливается надгробие
+     */
+    private LocalDateTime closedAt;
+}
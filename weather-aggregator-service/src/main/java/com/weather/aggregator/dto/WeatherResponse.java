@@ -25,4 +25,10 @@ public class WeatherResponse implements Serializable {
     private boolean success;
     private String errorMessage;
     private LocalDateTime timestamp;
+    private String replyTo;
+
+    /**
+     * Позиция города в запросе; null у сообщений от старых версий API
+     */
+    private Integer cityIndex;
 }
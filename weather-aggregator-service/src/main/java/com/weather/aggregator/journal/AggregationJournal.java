@@ -0,0 +1,428 @@
+package com.weather.aggregator.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.weather.aggregator.dto.JournalRecord;
+import com.weather.aggregator.dto.WeatherResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал упреждающей записи (write-ahead log) незавершенных агрегаций.
+ * 
+ * Каждое открытие контекста, каждый принятый ответ и закрытие контекста
+ * дописываются в memory-mapped сегмент до подтверждения сообщения RabbitMQ,
+ * поэтому после перезапуска агрегатор восстанавливает aggregationStore
+ * и досылает отчеты вместо того, чтобы потерять уже полученные ответы.
+ * 
+ * При aggregator.journal.sync=true каждая запись сбрасывается на диск (force)
+ * до возврата из метода и переживает падение ОС или потерю питания.
+ * С sync=false запись остается в page cache: гарантия распространяется
+ * только на падение процесса агрегатора.
+ * 
+ * Формат: каталог сегментов segment-{seq}.log фиксированного размера,
+ * записи [type:1][length:4][crc:4][JSON JournalRecord], где type:
+ * - 'O' - открытие контекста
+ * - 'R' - принятый ответ
+ * - 'C' - закрытие (полный или частичный отчет отправлен)
+ * Байт типа пишется последним: недописанная запись выглядит как конец сегмента.
+ * Запись с несовпадающим CRC32 тела или нечитаемым JSON также считается концом сегмента.
+ * Когда запись не помещается в сегмент, открывается следующий.
+ * 
+ * Записи 'C' моложе aggregator.tombstone-ttl восстанавливаются как надгробия:
+ * запоздавшие ответы и повторные доставки не открывают закрытую до сбоя корреляцию заново.
+ * 
+ * Компактирование (aggregator.journal.compaction-interval) удаляет закрытые сегменты:
+ * записи еще открытых корреляций и недавние записи 'C' из них сначала переписываются
+ * в активный сегмент.
+ * 
+ * Включается aggregator.journal.enabled; при выключенном журнале все методы ничего не делают.
+ */
+@Slf4j
+@Component
+public class AggregationJournal {
+
+    private static final byte TYPE_END = 0;
+    private static final byte TYPE_OPEN = 'O';
+    private static final byte TYPE_RESPONSE = 'R';
+    private static final byte TYPE_CLOSE = 'C';
+    private static final int RECORD_HEADER_SIZE = 9;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${aggregator.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${aggregator.journal.path:./data/journal}")
+    private Path directory;
+
+    @Value("${aggregator.journal.segment-size:16MB}")
+    private DataSize segmentSize;
+
+    @Value("${aggregator.journal.sync:true}")
+    private boolean sync;
+
+    @Value("${aggregator.journal.compaction-interval:30s}")
+    private Duration compactionInterval;
+
+    @Value("${aggregator.tombstone-ttl:60s}")
+    private Duration tombstoneTtl;
+
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aggregation-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Состояние журнала, защищено монитором this
+    private final NavigableMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private long activeSequence;
+    private MappedByteBuffer active;
+    // Открытые корреляции -> сегмент с их записью 'O'
+    private final Map<String, Long> openSegments = new HashMap<>();
+    // Недавно закрытые корреляции -> сегмент с их записью 'C'; хранятся aggregator.tombstone-ttl
+    private final Map<String, ClosedCorrelation> closedSegments = new HashMap<>();
+
+    private List<RecoveredAggregation> recovered = List.of();
+    private Map<String, LocalDateTime> recoveredTombstones = Map.of();
+
+    private record ClosedCorrelation(long sequence, LocalDateTime closedAt) {
+    }
+
+    public AggregationJournal(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(file -> file.getFileName().toString().matches("segment-\\d+\\.log")).toList()) {
+                segments.put(sequenceOf(file), map(file, FileChannel.MapMode.READ_ONLY));
+            }
+        }
+
+        Map<String, RecoveredAggregation> live = new LinkedHashMap<>();
+        Map<String, List<WeatherResponse>> orphans = new HashMap<>();
+        for (Map.Entry<Long, MappedByteBuffer> segment : segments.entrySet()) {
+            replay(segment.getKey(), segment.getValue(), live, orphans);
+        }
+        recovered = List.copyOf(live.values());
+        pruneClosed();
+        Map<String, LocalDateTime> tombstones = new HashMap<>();
+        closedSegments.forEach((correlationId, closed) -> tombstones.put(correlationId, closed.closedAt()));
+        recoveredTombstones = tombstones;
+
+        // Запись всегда продолжается в новом сегменте: хвост старого мог быть недописан
+        rotate(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+
+        compactor.scheduleWithFixedDelay(this::compactSafely,
+                compactionInterval.toMillis(), compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Opened aggregation journal {}: {} segment(s), {} in-flight aggregation(s) and {} tombstone(s) to recover",
+                directory, segments.size(), recovered.size(), recoveredTombstones.size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Незакрытые агрегации, прочитанные из журнала при старте. Список выдается один раз.
+     */
+    public synchronized List<RecoveredAggregation> takeRecovered() {
+        List<RecoveredAggregation> result = recovered;
+        recovered = List.of();
+        return result;
+    }
+
+    /**
+     * Корреляции, закрытые не раньше aggregator.tombstone-ttl до старта, и время их закрытия.
+     * Выдаются один раз.
+     */
+    public synchronized Map<String, LocalDateTime> takeRecoveredTombstones() {
+        Map<String, LocalDateTime> result = recoveredTombstones;
+        recoveredTombstones = Map.of();
+        return result;
+    }
+
+    public void recordOpen(String correlationId, String replyTo, int totalCities, LocalDateTime openedAt) {
+        append(TYPE_OPEN, new JournalRecord(correlationId, replyTo, totalCities, openedAt, null, null));
+    }
+
+    public void recordResponse(String correlationId, WeatherResponse response) {
+        append(TYPE_RESPONSE, new JournalRecord(correlationId, null, 0, null, response, null));
+    }
+
+    public void recordClose(String correlationId) {
+        append(TYPE_CLOSE, new JournalRecord(correlationId, null, 0, null, null, LocalDateTime.now()));
+    }
+
+    /**
+     * Сериализация выполняется вне монитора, под ним только копирование в сегмент.
+     */
+    private void append(byte type, JournalRecord record) {
+        if (!enabled) {
+            return;
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        synchronized (this) {
+            if (!write(type, body)) {
+                return;
+            }
+            String correlationId = record.getCorrelationId();
+            if (type == TYPE_OPEN) {
+                openSegments.put(correlationId, activeSequence);
+                closedSegments.remove(correlationId);
+            } else if (type == TYPE_CLOSE) {
+                openSegments.remove(correlationId);
+                closedSegments.put(correlationId, new ClosedCorrelation(activeSequence, record.getClosedAt()));
+            }
+        }
+    }
+
+    /**
+     * @return false, если запись больше сегмента и не может быть сохранена
+     */
+    private boolean write(byte type, byte[] body) {
+        int size = RECORD_HEADER_SIZE + body.length;
+        if (size > active.capacity()) {
+            log.warn("Journal record of {} bytes does not fit into a {} segment, skipped", size, segmentSize);
+            return false;
+        }
+        if (active.remaining() < size) {
+            active.force();
+            rotate(activeSequence + 1);
+        }
+        int position = active.position();
+        active.putInt(position + 1, body.length);
+        active.putInt(position + 5, checksum(body));
+        active.put(position + RECORD_HEADER_SIZE, body);
+        active.put(position, type);
+        active.position(position + size);
+        if (sync) {
+            active.force(position, size);
+        }
+        return true;
+    }
+
+    private void rotate(long sequence) {
+        try {
+            activeSequence = sequence;
+            active = map(segmentPath(sequence), FileChannel.MapMode.READ_WRITE);
+            segments.put(sequence, active);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer map(Path file, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = mode == FileChannel.MapMode.READ_ONLY
+                ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = mode == FileChannel.MapMode.READ_ONLY ? channel.size() : segmentSize.toBytes();
+            return channel.map(mode, 0, size);
+        }
+    }
+
+    /**
+     * Читает сегмент и применяет записи к восстанавливаемым агрегациям.
+     * После компактирования ответ может оказаться в журнале раньше перенесенной
+     * записи 'O' своей корреляции; такие ответы ждут ее в orphans.
+     */
+    private void replay(long sequence, MappedByteBuffer segment, Map<String, RecoveredAggregation> live,
+                        Map<String, List<WeatherResponse>> orphans) {
+        forEachRecord(sequence, segment, (type, body) -> {
+            JournalRecord record = objectMapper.readValue(body, JournalRecord.class);
+            String correlationId = record.getCorrelationId();
+            if (type == TYPE_OPEN) {
+                RecoveredAggregation aggregation = live.computeIfAbsent(correlationId, id -> new RecoveredAggregation(
+                        id, record.getReplyTo(), record.getTotalCities(), record.getOpenedAt(), new ArrayList<>()));
+                List<WeatherResponse> early = orphans.remove(correlationId);
+                if (early != null) {
+                    aggregation.responses().addAll(early);
+                }
+                openSegments.putIfAbsent(correlationId, sequence);
+                closedSegments.remove(correlationId);
+            } else if (type == TYPE_RESPONSE) {
+                RecoveredAggregation aggregation = live.get(correlationId);
+                if (aggregation != null) {
+                    aggregation.responses().add(record.getResponse());
+                } else {
+                    orphans.computeIfAbsent(correlationId, id -> new ArrayList<>()).add(record.getResponse());
+                }
+            } else if (type == TYPE_CLOSE) {
+                live.remove(correlationId);
+                orphans.remove(correlationId);
+                openSegments.remove(correlationId);
+                if (record.getClosedAt() != null) {
+                    closedSegments.put(correlationId, new ClosedCorrelation(sequence, record.getClosedAt()));
+                }
+            }
+        });
+    }
+
+    private interface RecordHandler {
+        void handle(byte type, byte[] body) throws IOException;
+    }
+
+    /**
+     * Обходит записи сегмента до первой недописанной или поврежденной:
+     * после нее границы следующих записей неизвестны, и чтение сегмента прекращается.
+     */
+    private void forEachRecord(long sequence, ByteBuffer segment, RecordHandler handler) {
+        ByteBuffer view = segment.duplicate();
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= view.capacity()) {
+            byte type = view.get(position);
+            int length = view.getInt(position + 1);
+            // Длина сравнивается с остатком сегмента: сумма с мусорной длиной переполняет int
+            if (type == TYPE_END || length < 0 || length > view.capacity() - position - RECORD_HEADER_SIZE) {
+                return;
+            }
+            byte[] body = new byte[length];
+            view.get(position + RECORD_HEADER_SIZE, body);
+            if (view.getInt(position + 5) != checksum(body)) {
+                log.warn("Journal segment {}: checksum mismatch at offset {}, ignoring the rest of the segment",
+                        sequence, position);
+                return;
+            }
+            try {
+                handler.handle(type, body);
+            } catch (IOException e) {
+                log.warn("Journal segment {}: unreadable record at offset {}, ignoring the rest of the segment: {}",
+                        sequence, position, e.getMessage());
+                return;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("Aggregation journal compaction failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Забывает закрытия старше aggregator.tombstone-ttl: их надгробия уже не нужны.
+     */
+    private void pruneClosed() {
+        LocalDateTime horizon = LocalDateTime.now().minus(tombstoneTtl);
+        closedSegments.values().removeIf(closed -> closed.closedAt().isBefore(horizon));
+    }
+
+    /**
+     * Удаляет все сегменты до активного. Записи корреляций, открытых в этих
+     * сегментах, и их недавние закрытия переписываются в активный сегмент,
+     * чтобы пережить удаление.
+     */
+    synchronized void compact() throws IOException {
+        active.force();
+        long cutoff = activeSequence;
+        if (segments.firstKey() >= cutoff) {
+            return;
+        }
+
+        Set<String> pinned = new HashSet<>();
+        openSegments.forEach((correlationId, sequence) -> {
+            if (sequence < cutoff) {
+                pinned.add(correlationId);
+            }
+        });
+        pruneClosed();
+        Set<String> closing = new HashSet<>();
+        closedSegments.forEach((correlationId, closed) -> {
+            if (closed.sequence() < cutoff) {
+                closing.add(correlationId);
+            }
+        });
+
+        if (!pinned.isEmpty() || !closing.isEmpty()) {
+            // Копия списка: перенос записей может открыть новый сегмент
+            for (Map.Entry<Long, MappedByteBuffer> segment : List.copyOf(segments.headMap(cutoff, false).entrySet())) {
+                forEachRecord(segment.getKey(), segment.getValue(), (type, body) -> {
+                    String correlationId = objectMapper.readValue(body, JournalRecord.class).getCorrelationId();
+                    if (type == TYPE_CLOSE ? closing.contains(correlationId) : pinned.contains(correlationId)) {
+                        write(type, body);
+                    }
+                });
+            }
+            long target = activeSequence;
+            pinned.forEach(correlationId -> openSegments.put(correlationId, target));
+            closing.forEach(correlationId -> closedSegments.computeIfPresent(correlationId,
+                    (id, closed) -> new ClosedCorrelation(target, closed.closedAt())));
+        }
+
+        NavigableMap<Long, MappedByteBuffer> obsolete = segments.headMap(cutoff, false);
+        for (Long sequence : List.copyOf(obsolete.keySet())) {
+            Files.deleteIfExists(segmentPath(sequence));
+        }
+        int removed = obsolete.size();
+        obsolete.clear();
+        log.info("Compacted aggregation journal: removed {} segment(s), carried over {} open aggregation(s) and {} tombstone(s)",
+                removed, pinned.size(), closing.size());
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("segment-%016d.log", sequence));
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        compactor.shutdownNow();
+        if (active != null) {
+            active.force();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.weather.aggregator.journal;
+
+import com.weather.aggregator.dto.WeatherResponse;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Незакрытая агрегация, восстановленная из журнала при старте.
+ */
+public record RecoveredAggregation(String correlationId, String replyTo, int totalCities,
+                                   LocalDateTime openedAt, List<WeatherResponse> responses) {
+}
@@ -3,27 +3,45 @@ package com.weather.aggregator.service;
 import com.weather.aggregator.dto.AggregatedWeatherReport;
 import com.weather.aggregator.dto.WeatherData;
 import com.weather.aggregator.dto.WeatherResponse;
+import com.weather.aggregator.journal.AggregationJournal;
+import com.weather.aggregator.journal.RecoveredAggregation;
+import com.weather.aggregator.timer.HashedWheelTimer;
+import com.weather.aggregator.timer.WheelTimeout;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
+import jakarta.annotation.PostConstruct;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class WeatherAggregatorService {
+public class WeatherAggregatorService implements MeterBinder {
 
     private final RabbitTemplate rabbitTemplate;
+    private final HashedWheelTimer aggregationTimer;
+    private final AggregationJournal aggregationJournal;
 
     @Value("${rabbitmq.exchange.weather}")
     private String exchangeName;
@@ -34,30 +52,96 @@ public class WeatherAggregatorService {
     @Value("${aggregator.timeout}")
     private long timeoutSeconds;
 
+    @Value("${aggregator.tombstone-ttl:60s}")
+    private Duration tombstoneTtl;
+
+    @Value("${aggregator.store.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${aggregator.store.max-bytes:64MB}")
+    private DataSize maxBytes;
+
+    @Value("${aggregator.store.max-cities:1000}")
+    private int maxCities;
+
     private static final String INDIVIDUAL_RESPONSE_ROUTING_KEY = "weather.individual.response";
 
+    // Оценка занимаемой памяти: контекст с атомиками и узлом map, ссылка на слот, WeatherData, String
+    private static final long CONTEXT_OVERHEAD_BYTES = 256;
+    private static final long SLOT_BYTES = 8;
+    private static final long WEATHER_DATA_BYTES = 96;
+    private static final long STRING_OVERHEAD_BYTES = 40;
+
     private final Map<String, AggregationContext> aggregationStore = new ConcurrentHashMap<>();
 
+    // Открытые контексты в порядке создания: первый - кандидат на вытеснение.
+    // Закрытый контекст удаляется по своему номеру за O(log n) и не удерживается в памяти.
+    private final ConcurrentSkipListMap<Long, AggregationContext> openOrder = new ConcurrentSkipListMap<>();
+    private final AtomicLong openSequence = new AtomicLong();
+
+    // Оценка памяти всех открытых контекстов в байтах
+    private final AtomicLong storeBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    // Закрытые корреляции: запоздавшие ответы и повторные доставки отбрасываются,
+    // а не открывают новый контекст. Удаляются колесом через aggregator.tombstone-ttl.
+    private final Set<String> tombstones = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Состояние агрегации одной корреляции без блокировок.
+     * 
+     * Результаты пишутся в заранее выделенный массив слотов по позиции города
+     * в запросе (cityIndex), битовая маска arrived отмечает уже полученные города
+     * (повторная доставка того же города не учитывается дважды), счетчики
+     * атомарные. Публикация в RabbitMQ идет без блокировок, и контекст одновременно
+     * используют поток доставки шарда, поток таймаутов и вытеснение. Разные шарды
+     * обрабатываются параллельно; ответы одной корреляции приходят из одной очереди
+     * шарда с single active consumer и обрабатываются ее потоком по очереди. Ровно один поток
+     * закрывает контекст (CAS closed) - получивший последний ответ, таймаут
+     * или вытеснение по бюджету памяти - и публикует отчет.
+     */
     private static class AggregationContext {
-        String correlationId;
-        int totalCities;
-        int receivedCount;
-        List<WeatherData> weatherDataList;
-        LocalDateTime startTime;
-        int successCount;
-        int failureCount;
-
-        AggregationContext(String correlationId, int totalCities) {
+        static final long RELEASED = Long.MIN_VALUE;
+
+        final String correlationId;
+        final String replyTo;
+        final int totalCities;
+        final LocalDateTime startTime;
+        final AtomicReferenceArray<WeatherData> slots;
+        // Бит на город: 1 - ответ уже получен
+        final AtomicLongArray arrived;
+        final AtomicInteger receivedCount = new AtomicInteger();
+        // Слоты для ответов без cityIndex (старые версии API)
+        final AtomicInteger unindexedSlot = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+        // Таймаут в колесе; отменяется при завершении агрегации
+        volatile WheelTimeout timeout;
+        // Ключ в openOrder; 0, пока контекст не учтен в track()
+        volatile long openSequence;
+        // Оценка памяти контекста, учтенная в storeBytes; RELEASED после удаления из хранилища
+        final AtomicLong estimatedBytes = new AtomicLong();
+
+        AggregationContext(String correlationId, String replyTo, int totalCities, LocalDateTime startTime) {
             this.correlationId = correlationId;
+            this.replyTo = replyTo;
             this.totalCities = totalCities;
-            this.receivedCount = 0;
-            this.weatherDataList = new ArrayList<>();
-            this.startTime = LocalDateTime.now();
-            this.successCount = 0;
-            this.failureCount = 0;
+            this.startTime = startTime;
+            this.slots = new AtomicReferenceArray<>(Math.max(totalCities, 0));
+            this.arrived = new AtomicLongArray((slots.length() + 63) >>> 6);
         }
 
+        /**
+         * Записывает ответ в слот города, если этот город еще не был получен.
+         * 
+         * @return данные города или null для дубликата или ответа без слота
+         */
         WeatherData addResponse(WeatherResponse response) {
+            int slot = slotOf(response);
+            if (slot < 0 || !markArrived(slot)) {
+                return null;
+            }
+
             WeatherData data = new WeatherData();
             data.setCorrelationId(correlationId);
             data.setCity(response.getCity());
@@ -68,23 +152,114 @@ public class WeatherAggregatorService {
             data.setSuccess(response.isSuccess());
             data.setErrorMessage(response.getErrorMessage());
 
-            weatherDataList.add(data);
-            receivedCount++;
+            slots.set(slot, data);
+            return data;
+        }
+
+        /**
+         * Атомарно выставляет бит слота.
+         * 
+         * @return true, если бит выставлен этим вызовом (первый ответ для города)
+         */
+        private boolean markArrived(int slot) {
+            int word = slot >>> 6;
+            long bit = 1L << slot;
+            while (true) {
+                long current = arrived.get(word);
+                if ((current & bit) != 0) {
+                    return false;
+                }
+                if (arrived.compareAndSet(word, current, current | bit)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Слот ответа: cityIndex, а для старых версий API без cityIndex - следующий
+         * свободный (дубликаты таких ответов отличить нельзя).
+         */
+        private int slotOf(WeatherResponse response) {
+            Integer cityIndex = response.getCityIndex();
+            if (cityIndex != null) {
+                return cityIndex >= 0 && cityIndex < slots.length() ? cityIndex : -1;
+            }
+            int slot = unindexedSlot.getAndIncrement();
+            return slot < slots.length() ? slot : -1;
+        }
+
+        /**
+         * Учитывает полученный ответ.
+         * 
+         * @return true для ответа, которым корреляция набрала все totalCities
+         */
+        boolean countResponse() {
+            return receivedCount.incrementAndGet() == totalCities;
+        }
+
+        /**
+         * Добавляет оценку памяти контекста.
+         * 
+         * @return добавленные байты; 0, если контекст уже удален из хранилища
+         */
+        long charge(long bytes) {
+            while (true) {
+                long current = estimatedBytes.get();
+                if (current == RELEASED) {
+                    return 0;
+                }
+                if (estimatedBytes.compareAndSet(current, current + bytes)) {
+                    return bytes;
+                }
+            }
+        }
 
-            if (response.isSuccess()) {
-                successCount++;
-            } else {
-                failureCount++;
+        /**
+         * @return вся учтенная память контекста; последующие charge() ничего не добавляют
+         */
+        long release() {
+            long bytes = estimatedBytes.getAndSet(RELEASED);
+            return bytes == RELEASED ? 0 : bytes;
+        }
+
+        /**
+         * Таймаут может быть еще не запланирован, если контекст закрылся сразу после создания
+         */
+        void cancelTimeout() {
+            WheelTimeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
             }
-            
-            return data;
         }
 
-        boolean isComplete() {
-            return receivedCount >= totalCities;
+        /**
+         * Закрывает контекст; true получает только один вызывающий.
+         */
+        boolean close() {
+            return closed.compareAndSet(false, true);
         }
 
+        /**
+         * Отчет по снимку слотов: города в порядке запроса, счетчики
+         * успехов/ошибок считаются по тем же данным, что попали в отчет.
+         */
         AggregatedWeatherReport buildReport(boolean isPartial, String partialReason) {
+            List<WeatherData> weatherDataList = new ArrayList<>(slots.length());
+            int successCount = 0;
+            int failureCount = 0;
+            for (int i = 0; i < slots.length(); i++) {
+                WeatherData data = slots.get(i);
+                if (data == null) {
+                    continue;
+                }
+                weatherDataList.add(data);
+                if (data.isSuccess()) {
+                    successCount++;
+                } else {
+                    failureCount++;
+                }
+            }
+
             AggregatedWeatherReport report = new AggregatedWeatherReport();
             report.setCorrelationId(correlationId);
             report.setTotalCities(totalCities);
@@ -96,126 +271,384 @@ public class WeatherAggregatorService {
             report.setPartialReason(partialReason);
             return report;
         }
-        
-        AggregatedWeatherReport buildReport() {
-            return buildReport(false, null);
-        }
     }
 
     /**
      * КЛЮЧЕВОЙ МЕТОД: Получает ответы и отправляет индивидуальные результаты
      */
-    @RabbitListener(queues = "${rabbitmq.queue.response}")
+    @RabbitListener(queues = "#{responseShardQueueNames}", containerFactory = "shardListenerContainerFactory")
     public void aggregateWeatherResponse(WeatherResponse response) {
         log.info("📨 Received weather response for city: {} (correlation ID: {})",
                 response.getCity(), response.getCorrelationId());
 
         String correlationId = response.getCorrelationId();
 
-        AggregationContext context = aggregationStore.computeIfAbsent(
-                correlationId,
-                id -> {
-                    log.info("🆕 Creating new aggregation context for correlation ID: {}", id);
-                    return new AggregationContext(id, response.getTotalCities());
-                }
-        );
-
-        synchronized (context) {
-            WeatherData individualData = context.addResponse(response);
-
-            log.debug("📊 Aggregation progress for {}: {}/{} responses received",
-                    correlationId, context.receivedCount, context.totalCities);
-
-            // ОТПРАВЛЯЕМ ИНДИВИДУАЛЬНЫЙ РЕЗУЛЬТАТ СРАЗУ
-            try {
-                rabbitTemplate.convertAndSend(
-                    exchangeName, 
-                    INDIVIDUAL_RESPONSE_ROUTING_KEY, 
-                    individualData
-                );
-                
-                log.info("📤 Forwarded individual result for city: {} to individual queue", 
-                    individualData.getCity());
-                
-            } catch (Exception e) {
-                log.error("❌ Error sending individual result: {}", e.getMessage(), e);
+        AggregationContext context = aggregationStore.get(correlationId);
+        if (context == null && !tombstones.contains(correlationId)) {
+            // totalCities приходит из сообщения: размер контекста проверяется до выделения слотов
+            if (!admit(correlationId, response.getTotalCities())) {
+                return;
             }
+            context = openContext(correlationId, response.getReplyTo(), response.getTotalCities());
+        }
+        if (context == null || context.closed.get()) {
+            log.debug("🪦 Dropping late response for city {} of closed correlation ID: {}",
+                    response.getCity(), correlationId);
+            return;
+        }
+        handleResponse(context, response);
+        enforceBudget();
+    }
 
-            // Проверяем завершенность агрегации
-            if (context.isComplete()) {
-                log.info("✅ All responses received for correlation ID: {}. Building complete report.",
-                        correlationId);
+    /**
+     * Создает и публикует контекст через putIfAbsent; журнал, таймаут и учет памяти -
+     * вне операций map, чтобы I/O журнала не выполнялся под блокировкой ячейки ConcurrentHashMap.
+     * 
+     * @return контекст корреляции (новый или созданный другим потоком) или null,
+     *         если корреляция тем временем закрылась
+     */
+    private AggregationContext openContext(String correlationId, String replyTo, int totalCities) {
+        AggregationContext created = new AggregationContext(correlationId, replyTo, totalCities, LocalDateTime.now());
+        AggregationContext existing = aggregationStore.putIfAbsent(correlationId, created);
+        if (existing != null) {
+            return existing;
+        }
+        // retire() добавляет надгробие до удаления контекста: если корреляция закрылась
+        // между проверкой надгробия и putIfAbsent, здесь надгробие уже видно
+        if (tombstones.contains(correlationId)) {
+            aggregationStore.remove(correlationId, created);
+            return null;
+        }
 
-                AggregatedWeatherReport report = context.buildReport(false, null);
+        log.info("🆕 Creating new aggregation context for correlation ID: {}", correlationId);
+        journal(() -> aggregationJournal.recordOpen(correlationId, replyTo, totalCities, created.startTime));
+        created.timeout = aggregationTimer.newTimeout(() -> expire(created), Duration.ofSeconds(timeoutSeconds));
+        if (created.closed.get()) {
+            // Контекст завершился до планирования таймаута
+            created.timeout.cancel();
+        }
+        track(created);
+        return created;
+    }
 
-                log.info("📊 Aggregated report ready: {} total, {} successful, {} failed",
-                        report.getTotalCities(), report.getSuccessCount(), report.getFailureCount());
+    /**
+     * Проверяет размер нового контекста до его создания. Корреляция больше
+     * aggregator.store.max-cities или всего бюджета max-bytes отклоняется
+     * и запоминается надгробием, чтобы ее остальные ответы отбрасывались без проверки.
+     * Для допустимого контекста самые старые агрегации вытесняются заранее,
+     * чтобы слоты выделялись уже в пределах бюджета.
+     */
+    private boolean admit(String correlationId, int totalCities) {
+        long projected = contextBytes(totalCities);
+        if (totalCities > maxCities || projected > maxBytes.toBytes()) {
+            rejections.incrementAndGet();
+            log.warn("🚫 Rejecting aggregation for correlation ID: {} ({} cities, ~{} bytes; limits: {} cities, {})",
+                    correlationId, totalCities, projected, maxCities, maxBytes);
+            tombstones.add(correlationId);
+            aggregationTimer.newTimeout(() -> tombstones.remove(correlationId), tombstoneTtl);
+            return false;
+        }
+        enforceBudget(projected);
+        return true;
+    }
 
-                rabbitTemplate.convertAndSend(exchangeName, aggregatedRoutingKey, report);
+    /**
+     * Оценка памяти пустого контекста: заголовок, слоты и битовая маска arrived.
+     */
+    private static long contextBytes(int totalCities) {
+        long slots = Math.max(totalCities, 0);
+        return CONTEXT_OVERHEAD_BYTES + SLOT_BYTES * slots + Long.BYTES * ((slots + 63) >>> 6);
+    }
 
-                log.info("📤 Complete aggregated report sent for correlation ID: {}", correlationId);
+    /**
+     * Учитывает новый контекст в бюджете хранилища: заголовок и слоты.
+     */
+    private void track(AggregationContext context) {
+        storeBytes.addAndGet(context.charge(contextBytes(context.slots.length())));
+        long sequence = openSequence.incrementAndGet();
+        context.openSequence = sequence;
+        openOrder.put(sequence, context);
+        if (context.closed.get()) {
+            // Контекст закрылся до учета: retire() мог еще не видеть его номер
+            openOrder.remove(sequence, context);
+        }
+    }
 
-                aggregationStore.remove(correlationId);
-                log.debug("🧹 Aggregation context removed for correlation ID: {}", correlationId);
+    /**
+     * Восстанавливает незакрытые агрегации из журнала до запуска слушателей.
+     * Оставшееся время таймаута отсчитывается от исходного создания контекста;
+     * агрегации, набравшие все ответы до сбоя, досылают полный отчет.
+     * Надгробия недавно закрытых корреляций восстанавливаются на остаток aggregator.tombstone-ttl.
+     */
+    @PostConstruct
+    public void recoverFromJournal() {
+        Map<String, LocalDateTime> closed = aggregationJournal.takeRecoveredTombstones();
+        closed.forEach((correlationId, closedAt) -> {
+            tombstones.add(correlationId);
+            Duration remaining = tombstoneTtl.minus(Duration.between(closedAt, LocalDateTime.now()));
+            aggregationTimer.newTimeout(() -> tombstones.remove(correlationId),
+                    remaining.isNegative() ? Duration.ZERO : remaining);
+        });
+
+        List<RecoveredAggregation> recovered = aggregationJournal.takeRecovered();
+        for (RecoveredAggregation aggregation : recovered) {
+            AggregationContext context = new AggregationContext(aggregation.correlationId(),
+                    aggregation.replyTo(), aggregation.totalCities(), aggregation.openedAt());
+            track(context);
+            boolean complete = false;
+            for (WeatherResponse response : aggregation.responses()) {
+                WeatherData data = context.addResponse(response);
+                if (data != null) {
+                    storeBytes.addAndGet(context.charge(estimateBytes(data)));
+                    complete = context.countResponse();
+                }
             }
+            aggregationStore.put(context.correlationId, context);
+
+            Duration remaining = Duration.ofSeconds(timeoutSeconds)
+                    .minus(Duration.between(context.startTime, LocalDateTime.now()));
+            Runnable task = complete ? () -> complete(context) : () -> expire(context);
+            context.timeout = aggregationTimer.newTimeout(task,
+                    complete || remaining.isNegative() ? Duration.ZERO : remaining);
+        }
+        if (!recovered.isEmpty() || !closed.isEmpty()) {
+            log.info("♻️ Recovered {} in-flight aggregation(s) and {} tombstone(s) from journal",
+                    recovered.size(), closed.size());
+            enforceBudget();
         }
     }
 
-    @Scheduled(fixedDelay = 30000)
-    public void cleanupExpiredAggregations() {
-        LocalDateTime now = LocalDateTime.now();
-        List<String> expiredIds = new ArrayList<>();
+    /**
+     * Записывает ответ и публикует результаты. Блокировок нет: отправка в RabbitMQ
+     * не задерживает обработку других ответов той же корреляции.
+     */
+    private void handleResponse(AggregationContext context, WeatherResponse response) {
+        String correlationId = context.correlationId;
 
-        aggregationStore.forEach((correlationId, context) -> {
-            long secondsElapsed = Duration.between(context.startTime, now).getSeconds();
-            
-            if (secondsElapsed > timeoutSeconds) {
-                log.warn("⏱️ Aggregation timeout for correlation ID: {} (elapsed: {}s, timeout: {}s)",
-                        correlationId, secondsElapsed, timeoutSeconds);
-                expiredIds.add(correlationId);
-            }
-        });
+        WeatherData individualData = context.addResponse(response);
+        if (individualData == null) {
+            log.warn("⚠️ Duplicate or out-of-range response for city {} in correlation ID: {} (cityIndex: {}, totalCities: {})",
+                    response.getCity(), correlationId, response.getCityIndex(), context.totalCities);
+            return;
+        }
+        journal(() -> aggregationJournal.recordResponse(correlationId, response));
+        storeBytes.addAndGet(context.charge(estimateBytes(individualData)));
+        boolean lastResponse = context.countResponse();
 
-        expiredIds.forEach(correlationId -> {
-            AggregationContext context = aggregationStore.remove(correlationId);
-            
-            if (context != null) {
-                synchronized (context) {
-                    int missingResponses = context.totalCities - context.receivedCount;
-                    
-                    log.warn("⚠️ Sending PARTIAL report for correlation ID: {}", correlationId);
-                    log.warn("   Received: {}/{} responses", context.receivedCount, context.totalCities);
-                    log.warn("   Missing: {} responses", missingResponses);
-                    
-                    String partialReason = String.format(
-                        "Timeout after %ds: received only %d/%d responses. %d responses missing.",
-                        timeoutSeconds,
-                        context.receivedCount,
-                        context.totalCities,
-                        missingResponses
-                    );
-                    
-                    AggregatedWeatherReport partialReport = context.buildReport(true, partialReason);
-                    
-                    try {
-                        rabbitTemplate.convertAndSend(exchangeName, aggregatedRoutingKey, partialReport);
-                        
-                        log.info("📤 Partial report sent for correlation ID: {}", correlationId);
-                        log.info("   Status: {} successful, {} failed, {} missing",
-                                context.successCount,
-                                context.failureCount,
-                                missingResponses);
-                        
-                    } catch (Exception e) {
-                        log.error("❌ Failed to send partial report for {}: {}", 
-                                correlationId, e.getMessage());
-                    }
-                }
+        log.debug("📊 Aggregation progress for {}: {}/{} responses received",
+                correlationId, context.receivedCount.get(), context.totalCities);
+
+        // ОТПРАВЛЯЕМ ИНДИВИДУАЛЬНЫЙ РЕЗУЛЬТАТ СРАЗУ
+        try {
+            rabbitTemplate.convertAndSend(
+                exchangeName,
+                replyRoutingKey(INDIVIDUAL_RESPONSE_ROUTING_KEY, context.replyTo),
+                individualData
+            );
+
+            log.info("📤 Forwarded individual result for city: {} to individual queue",
+                individualData.getCity());
+
+        } catch (Exception e) {
+            log.error("❌ Error sending individual result: {}", e.getMessage(), e);
+        }
+
+        // Проверяем завершенность агрегации
+        if (lastResponse) {
+            complete(context);
+        }
+    }
+
+    /**
+     * Полный отчет: все totalCities ответов получены.
+     */
+    private void complete(AggregationContext context) {
+        String correlationId = context.correlationId;
+
+        if (!context.close()) {
+            return;
+        }
+        context.cancelTimeout();
+        retire(context);
+
+        log.info("✅ All responses received for correlation ID: {}. Building complete report.",
+                correlationId);
+
+        AggregatedWeatherReport report = context.buildReport(false, null);
+
+        log.info("📊 Aggregated report ready: {} total, {} successful, {} failed",
+                report.getTotalCities(), report.getSuccessCount(), report.getFailureCount());
+
+        rabbitTemplate.convertAndSend(exchangeName,
+                replyRoutingKey(aggregatedRoutingKey, context.replyTo), report);
+
+        log.info("📤 Complete aggregated report sent for correlation ID: {}", correlationId);
+        journal(() -> aggregationJournal.recordClose(correlationId));
+        log.debug("🧹 Aggregation context removed for correlation ID: {}", correlationId);
+    }
+
+    /**
+     * Пока хранилище превышает aggregator.store.max-entries или max-bytes,
+     * самые старые открытые агрегации закрываются частичным отчетом.
+     */
+    private void enforceBudget() {
+        enforceBudget(0);
+    }
+
+    /**
+     * То же, но с запасом incomingBytes под контекст, который еще не создан.
+     */
+    private void enforceBudget(long incomingBytes) {
+        while (aggregationStore.size() > maxEntries || storeBytes.get() + incomingBytes > maxBytes.toBytes()) {
+            Map.Entry<Long, AggregationContext> oldest = openOrder.pollFirstEntry();
+            if (oldest == null) {
+                return;
             }
-        });
-        
-        if (!expiredIds.isEmpty()) {
-            log.info("🧹 Cleaned up {} expired aggregation context(s)", expiredIds.size());
+            evict(oldest.getValue());
         }
     }
-}
\ No newline at end of file
+
+    private static long estimateBytes(WeatherData data) {
+        return WEATHER_DATA_BYTES
+                + estimateBytes(data.getCity())
+                + estimateBytes(data.getDescription())
+                + estimateBytes(data.getErrorMessage());
+    }
+
+    private static long estimateBytes(String value) {
+        return value == null ? 0 : STRING_OVERHEAD_BYTES + value.length();
+    }
+
+    /**
+     * Ошибка журнала не прерывает агрегацию: состояние остается в памяти,
+     * теряется только возможность восстановить его после перезапуска.
+     */
+    private void journal(Runnable write) {
+        try {
+            write.run();
+        } catch (Exception e) {
+            log.error("❌ Aggregation journal write failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Адресный routing key экземпляра API: {baseKey}.{replyTo}.
+     * Для сообщений без replyTo используется общий ключ (совместимость со старыми клиентами).
+     */
+    private String replyRoutingKey(String baseKey, String replyTo) {
+        return replyTo == null || replyTo.isBlank() ? baseKey : baseKey + "." + replyTo;
+    }
+
+    /**
+     * Заменяет закрытый контекст надгробием на aggregator.tombstone-ttl.
+     */
+    private void retire(AggregationContext context) {
+        String correlationId = context.correlationId;
+        tombstones.add(correlationId);
+        aggregationStore.remove(correlationId, context);
+        long sequence = context.openSequence;
+        if (sequence != 0) {
+            openOrder.remove(sequence, context);
+        }
+        storeBytes.addAndGet(-context.release());
+        aggregationTimer.newTimeout(() -> tombstones.remove(correlationId), tombstoneTtl);
+    }
+
+    /**
+     * Таймаут агрегации, вызывается HashedWheelTimer через timeoutSeconds после первого ответа.
+     * Отправляет частичный отчет с уже полученными результатами.
+     */
+    private void expire(AggregationContext context) {
+        if (!context.close()) {
+            return;
+        }
+        retire(context);
+
+        long secondsElapsed = Duration.between(context.startTime, LocalDateTime.now()).getSeconds();
+        log.warn("⏱️ Aggregation timeout for correlation ID: {} (elapsed: {}s, timeout: {}s)",
+                context.correlationId, secondsElapsed, timeoutSeconds);
+
+        sendPartialReport(context, String.format("Timeout after %ds", timeoutSeconds));
+    }
+
+    /**
+     * Вытеснение агрегации при превышении бюджета хранилища: частичный отчет
+     * уходит до истечения таймаута.
+     */
+    private void evict(AggregationContext context) {
+        if (!context.close()) {
+            return;
+        }
+        context.cancelTimeout();
+        retire(context);
+        evictions.incrementAndGet();
+
+        long secondsElapsed = Duration.between(context.startTime, LocalDateTime.now()).getSeconds();
+        log.warn("🗑️ Evicting aggregation for correlation ID: {} (elapsed: {}s, store: {} entries, {} bytes)",
+                context.correlationId, secondsElapsed, aggregationStore.size(), storeBytes.get());
+
+        sendPartialReport(context, String.format("Evicted after %ds: aggregation store is over its memory budget",
+                secondsElapsed));
+    }
+
+    private void sendPartialReport(AggregationContext context, String cause) {
+        String correlationId = context.correlationId;
+
+        AggregatedWeatherReport partialReport = context.buildReport(true, null);
+        int receivedCount = partialReport.getReports().size();
+        int missingResponses = context.totalCities - receivedCount;
+
+        log.warn("⚠️ Sending PARTIAL report for correlation ID: {}", correlationId);
+        log.warn("   Received: {}/{} responses", receivedCount, context.totalCities);
+        log.warn("   Missing: {} responses", missingResponses);
+
+        partialReport.setPartialReason(String.format(
+            "%s: received only %d/%d responses. %d responses missing.",
+            cause,
+            receivedCount,
+            context.totalCities,
+            missingResponses
+        ));
+
+        try {
+            rabbitTemplate.convertAndSend(exchangeName,
+                    replyRoutingKey(aggregatedRoutingKey, context.replyTo), partialReport);
+
+            log.info("📤 Partial report sent for correlation ID: {}", correlationId);
+            log.info("   Status: {} successful, {} failed, {} missing",
+                    partialReport.getSuccessCount(),
+                    partialReport.getFailureCount(),
+                    missingResponses);
+
+        } catch (Exception e) {
+            log.error("❌ Failed to send partial report for {}: {}",
+                    correlationId, e.getMessage());
+        }
+        journal(() -> aggregationJournal.recordClose(correlationId));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("aggregator.store.entries", aggregationStore, Map::size)
+                .description("Open aggregations")
+                .register(registry);
+        Gauge.builder("aggregator.store.bytes", storeBytes, AtomicLong::get)
+                .description("Estimated memory of open aggregations, bytes")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("aggregator.store.utilization", this,
+                        service -> Math.max((double) aggregationStore.size() / maxEntries,
+                                (double) storeBytes.get() / maxBytes.toBytes()))
+                .description("Occupancy of the tighter store budget (entries or bytes), 1.0 = full")
+                .register(registry);
+        Gauge.builder("aggregator.store.tombstones", tombstones, Set::size)
+                .description("Closed correlations remembered to drop late responses")
+                .register(registry);
+        FunctionCounter.builder("aggregator.store.evictions", evictions, AtomicLong::get)
+                .description("Aggregations force-completed as partial reports due to the store budget")
+                .register(registry);
+        FunctionCounter.builder("aggregator.store.rejections", rejections, AtomicLong::get)
+                .description("Aggregations rejected before allocation as larger than max-cities or max-bytes")
+                .register(registry);
+    }
+}
@@ -0,0 +1,214 @@
+package com.weather.aggregator.timer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Таймер на основе хешированного колеса (hashed timing wheel).
+ * 
+ * Колесо из wheelSize ячеек поворачивается на одну ячейку каждые tickDuration.
+ * Задача с дедлайном попадает в ячейку (deadline / tick) mod wheelSize и хранит
+ * число полных оборотов до срабатывания. Каждый тик обходит только одну ячейку,
+ * поэтому стоимость не зависит от общего числа таймеров.
+ * 
+ * - newTimeout(): O(1), без блокировок (задача кладется в очередь, в ячейку ее
+ *   переносит поток колеса на ближайшем тике)
+ * - cancel(): O(1), CAS состояния и удаление из двусвязного списка ячейки на тике
+ * - точность срабатывания: tickDuration
+ * 
+ * Задачи выполняются в переданном executor, чтобы медленная задача не сдвигала тики.
+ */
+@Slf4j
+public class HashedWheelTimer {
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor taskExecutor;
+
+    private final Queue<WheelTimeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeTimeouts = new AtomicInteger();
+
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+
+    // Используется только потоком колеса
+    private long tick;
+
+    /**
+     * @param tickDuration длительность тика (точность таймера)
+     * @param wheelSize число ячеек колеса (округляется вверх до степени двойки)
+     * @param taskExecutor executor для выполнения сработавших задач
+     * @param threadName имя потока колеса
+     */
+    public HashedWheelTimer(Duration tickDuration, int wheelSize, Executor taskExecutor, String threadName) {
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.tickNanos = Math.max(tickDuration.toNanos(), TimeUnit.MILLISECONDS.toNanos(1));
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.taskExecutor = taskExecutor;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, threadName);
+        this.worker.setDaemon(true);
+        this.worker.start();
+        log.info("HashedWheelTimer '{}' started: tick {}ms, {} buckets",
+                threadName, TimeUnit.NANOSECONDS.toMillis(tickNanos), size);
+    }
+
+    /**
+     * Планирует задачу через delay.
+     * 
+     * @return дескриптор для отмены
+     */
+    public WheelTimeout newTimeout(Runnable task, Duration delay) {
+        WheelTimeout timeout = new WheelTimeout(this, task, System.nanoTime() - startNanos + delay.toNanos());
+        activeTimeouts.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Количество запланированных и еще не сработавших/не отмененных задач.
+     */
+    public int getActiveCount() {
+        return activeTimeouts.get();
+    }
+
+    /**
+     * Останавливает поток колеса; несработавшие задачи не выполняются.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    void onCancelled(WheelTimeout timeout) {
+        activeTimeouts.decrementAndGet();
+        cancelledTimeouts.add(timeout);
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                if (Thread.interrupted() && !running) {
+                    break;
+                }
+                continue;
+            }
+
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        // Ограничение за тик, чтобы поток поступления задач не остановил колесо
+        for (int i = 0; i < 100_000; i++) {
+            WheelTimeout timeout = pendingTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long calculatedTick = timeout.deadlineNanos / tickNanos;
+            timeout.remainingRounds = (calculatedTick - tick) / wheel.length;
+            // Просроченные задачи попадают в текущую ячейку и срабатывают на этом тике
+            long ticksToUse = Math.max(calculatedTick, tick);
+            wheel[(int) (ticksToUse & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void fire(WheelTimeout timeout) {
+        if (!timeout.markExpired()) {
+            return;
+        }
+        activeTimeouts.decrementAndGet();
+        try {
+            taskExecutor.execute(timeout.task);
+        } catch (Exception e) {
+            log.error("Error submitting expired timer task: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ячейка колеса: двусвязный список задач, доступен только потоку колеса.
+     */
+    final class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire() {
+            WheelTimeout timeout = head;
+            while (timeout != null) {
+                WheelTimeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    // Ячейка выбрана по дедлайну, поэтому на последнем обороте задача уже истекла
+                    remove(timeout);
+                    fire(timeout);
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(WheelTimeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.weather.aggregator.timer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Дескриптор задачи HashedWheelTimer.
+ */
+public class WheelTimeout {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final HashedWheelTimer timer;
+    final Runnable task;
+    final long deadlineNanos;
+    private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+    // Используются только потоком колеса
+    long remainingRounds;
+    WheelTimeout prev;
+    WheelTimeout next;
+    HashedWheelTimer.Bucket bucket;
+
+    WheelTimeout(HashedWheelTimer timer, Runnable task, long deadlineNanos) {
+        this.timer = timer;
+        this.task = task;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Отменяет задачу, если она еще не сработала.
+     * 
+     * @return true, если задача отменена этим вызовом
+     */
+    public boolean cancel() {
+        if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+            return false;
+        }
+        timer.onCancelled(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return state.get() == STATE_CANCELLED;
+    }
+
+    boolean markExpired() {
+        return state.compareAndSet(STATE_PENDING, STATE_EXPIRED);
+    }
+}
@@ -0,0 +1,270 @@
+package com.weather.aggregator.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.weather.aggregator.dto.WeatherResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AggregationJournalTest {
+
+    // [type:1][length:4][crc:4]
+    private static final int HEADER_SIZE = 9;
+
+    @TempDir
+    Path directory;
+
+    private final List<AggregationJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() {
+        journals.forEach(AggregationJournal::close);
+    }
+
+    @Test
+    void replaysOpenAggregationsWithTheirResponses() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofMegabytes(1));
+        journal.recordOpen("open", "reply.queue", 3, LocalDateTime.now());
+        journal.recordResponse("open", response("open", "Moscow", 0));
+        journal.recordResponse("open", response("open", "Paris", 1));
+        journal.recordOpen("done", "reply.queue", 1, LocalDateTime.now());
+        journal.recordResponse("done", response("done", "Rome", 0));
+        journal.recordClose("done");
+        journal.close();
+
+        List<RecoveredAggregation> recovered = openJournal(DataSize.ofMegabytes(1)).takeRecovered();
+
+        assertThat(recovered).hasSize(1);
+        RecoveredAggregation aggregation = recovered.get(0);
+        assertThat(aggregation.correlationId()).isEqualTo("open");
+        assertThat(aggregation.replyTo()).isEqualTo("reply.queue");
+        assertThat(aggregation.totalCities()).isEqualTo(3);
+        assertThat(aggregation.responses()).extracting(WeatherResponse::getCity).containsExactly("Moscow", "Paris");
+    }
+
+    @Test
+    void ignoresTornRecordAtSegmentTail() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofMegabytes(1));
+        journal.recordOpen("torn", "reply.queue", 2, LocalDateTime.now());
+        journal.recordResponse("torn", response("torn", "Moscow", 0));
+        journal.recordResponse("torn", response("torn", "Paris", 1));
+        journal.close();
+
+        // Байт типа пишется последним: запись без него считается недописанной
+        Path segment = segmentFiles().get(0);
+        List<Integer> offsets = recordOffsets(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0}), offsets.get(offsets.size() - 1));
+        }
+
+        List<RecoveredAggregation> recovered = openJournal(DataSize.ofMegabytes(1)).takeRecovered();
+
+        assertThat(recovered).singleElement()
+                .satisfies(aggregation -> assertThat(aggregation.responses())
+                        .extracting(WeatherResponse::getCity).containsExactly("Moscow"));
+    }
+
+    @Test
+    void ignoresRecordWithLengthBeyondSegment() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofMegabytes(1));
+        journal.recordOpen("torn", "reply.queue", 1, LocalDateTime.now());
+        journal.close();
+
+        Path segment = segmentFiles().get(0);
+        int end = recordEnd(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(HEADER_SIZE).put((byte) 'R').putInt(Integer.MAX_VALUE).putInt(0).flip(), end);
+        }
+
+        List<RecoveredAggregation> recovered = openJournal(DataSize.ofMegabytes(1)).takeRecovered();
+
+        assertThat(recovered).singleElement()
+                .satisfies(aggregation -> assertThat(aggregation.responses()).isEmpty());
+    }
+
+    @Test
+    void stopsSegmentAtCorruptedBodyUnderIntactHeader() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofMegabytes(1));
+        journal.recordOpen("corrupted", "reply.queue", 3, LocalDateTime.now());
+        journal.recordResponse("corrupted", response("corrupted", "Moscow", 0));
+        journal.recordResponse("corrupted", response("corrupted", "Paris", 1));
+        journal.recordResponse("corrupted", response("corrupted", "Rome", 2));
+        journal.close();
+
+        // Тип и длина второго ответа целы, тело заменено мусором
+        Path segment = segmentFiles().get(0);
+        int paris = recordOffsets(segment).get(2);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("{not json".getBytes()), paris + HEADER_SIZE);
+        }
+
+        List<RecoveredAggregation> recovered = openJournal(DataSize.ofMegabytes(1)).takeRecovered();
+
+        assertThat(recovered).singleElement()
+                .satisfies(aggregation -> assertThat(aggregation.responses())
+                        .extracting(WeatherResponse::getCity).containsExactly("Moscow"));
+    }
+
+    @Test
+    void stopsSegmentAtUnreadableRecordWithValidChecksum() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofMegabytes(1));
+        journal.recordOpen("garbage", "reply.queue", 2, LocalDateTime.now());
+        journal.recordResponse("garbage", response("garbage", "Moscow", 0));
+        journal.close();
+
+        Path segment = segmentFiles().get(0);
+        byte[] body = "{not json}".getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.length)
+                .put((byte) 'R').putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(record, recordEnd(segment));
+        }
+
+        List<RecoveredAggregation> recovered = openJournal(DataSize.ofMegabytes(1)).takeRecovered();
+
+        assertThat(recovered).singleElement()
+                .satisfies(aggregation -> assertThat(aggregation.responses())
+                        .extracting(WeatherResponse::getCity).containsExactly("Moscow"));
+    }
+
+    @Test
+    void compactionCarriesOpenAggregationsAcrossRestart() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofKilobytes(2));
+        journal.recordOpen("pinned", "reply.queue", 2, LocalDateTime.now());
+        journal.recordResponse("pinned", response("pinned", "Moscow", 0));
+        fillUntilRotation(journal);
+        // Ответ попадает в активный сегмент раньше перенесенной записи 'O'
+        journal.recordResponse("pinned", response("pinned", "Paris", 1));
+
+        journal.compact();
+        assertThat(segmentFiles()).hasSize(1);
+        journal.close();
+
+        List<RecoveredAggregation> recovered = openJournal(DataSize.ofKilobytes(2)).takeRecovered();
+
+        assertThat(recovered).singleElement().satisfies(aggregation -> {
+            assertThat(aggregation.correlationId()).isEqualTo("pinned");
+            assertThat(aggregation.responses()).extracting(WeatherResponse::getCity)
+                    .containsExactlyInAnyOrder("Moscow", "Paris");
+        });
+    }
+
+    @Test
+    void recoversRecentTombstonesButNotClosedAggregations() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofKilobytes(2));
+        journal.recordOpen("closed", "reply.queue", 1, LocalDateTime.now());
+        journal.recordResponse("closed", response("closed", "Rome", 0));
+        journal.recordClose("closed");
+        fillUntilRotation(journal);
+
+        journal.compact();
+        journal.close();
+
+        AggregationJournal reopened = openJournal(DataSize.ofKilobytes(2));
+        assertThat(reopened.takeRecovered()).isEmpty();
+        Map<String, LocalDateTime> tombstones = reopened.takeRecoveredTombstones();
+        assertThat(tombstones).containsKey("closed");
+        assertThat(reopened.takeRecoveredTombstones()).isEmpty();
+    }
+
+    @Test
+    void forgetsTombstonesOlderThanTtl() throws IOException {
+        AggregationJournal journal = openJournal(DataSize.ofMegabytes(1));
+        journal.recordOpen("closed", "reply.queue", 1, LocalDateTime.now());
+        journal.recordClose("closed");
+        journal.close();
+
+        AggregationJournal reopened = newJournal(DataSize.ofMegabytes(1));
+        ReflectionTestUtils.setField(reopened, "tombstoneTtl", Duration.ZERO);
+        reopened.open();
+
+        assertThat(reopened.takeRecoveredTombstones()).isEmpty();
+    }
+
+    private AggregationJournal openJournal(DataSize segmentSize) throws IOException {
+        AggregationJournal journal = newJournal(segmentSize);
+        journal.open();
+        return journal;
+    }
+
+    private AggregationJournal newJournal(DataSize segmentSize) {
+        AggregationJournal journal = new AggregationJournal(new ObjectMapper().findAndRegisterModules());
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", directory);
+        ReflectionTestUtils.setField(journal, "segmentSize", segmentSize);
+        ReflectionTestUtils.setField(journal, "sync", false);
+        ReflectionTestUtils.setField(journal, "compactionInterval", Duration.ofHours(1));
+        ReflectionTestUtils.setField(journal, "tombstoneTtl", Duration.ofMinutes(1));
+        journals.add(journal);
+        return journal;
+    }
+
+    /**
+     * Дописывает закрытые корреляции, пока журнал не перейдет в следующий сегмент.
+     */
+    private void fillUntilRotation(AggregationJournal journal) {
+        long sequence = (long) ReflectionTestUtils.getField(journal, "activeSequence");
+        for (int i = 0; (long) ReflectionTestUtils.getField(journal, "activeSequence") == sequence; i++) {
+            String correlationId = "filler-" + i;
+            journal.recordOpen(correlationId, "reply.queue", 1, LocalDateTime.now().minusHours(1));
+            journal.recordResponse(correlationId, response(correlationId, "Berlin", 0));
+            journal.recordClose(correlationId);
+        }
+    }
+
+    private static WeatherResponse response(String correlationId, String city, int cityIndex) {
+        WeatherResponse response = new WeatherResponse();
+        response.setCorrelationId(correlationId);
+        response.setCity(city);
+        response.setTemperature(20.5);
+        response.setSuccess(true);
+        response.setTimestamp(LocalDateTime.now());
+        response.setReplyTo("reply.queue");
+        response.setCityIndex(cityIndex);
+        return response;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    private static List<Integer> recordOffsets(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Integer> offsets = new ArrayList<>();
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity() && buffer.get(position) != 0) {
+            offsets.add(position);
+            position += HEADER_SIZE + buffer.getInt(position + 1);
+        }
+        return offsets;
+    }
+
+    private static int recordEnd(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Integer> offsets = recordOffsets(segment);
+        int last = offsets.get(offsets.size() - 1);
+        return last + HEADER_SIZE + buffer.getInt(last + 1);
+    }
+}
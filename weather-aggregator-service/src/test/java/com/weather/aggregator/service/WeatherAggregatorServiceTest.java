@@ -0,0 +1,93 @@
+package com.weather.aggregator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.weather.aggregator.dto.WeatherResponse;
+import com.weather.aggregator.journal.AggregationJournal;
+import com.weather.aggregator.timer.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class WeatherAggregatorServiceTest {
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final HashedWheelTimer timer = new HashedWheelTimer(Duration.ofMillis(10), 8, Runnable::run, "test-wheel");
+    private final WeatherAggregatorService service = new WeatherAggregatorService(rabbitTemplate, timer,
+            new AggregationJournal(new ObjectMapper()));
+
+    @BeforeEach
+    void configure() {
+        ReflectionTestUtils.setField(service, "exchangeName", "weather.exchange");
+        ReflectionTestUtils.setField(service, "aggregatedRoutingKey", "weather.aggregated");
+        ReflectionTestUtils.setField(service, "timeoutSeconds", 60L);
+        ReflectionTestUtils.setField(service, "tombstoneTtl", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(service, "maxEntries", 100);
+        ReflectionTestUtils.setField(service, "maxBytes", DataSize.ofKilobytes(1));
+        ReflectionTestUtils.setField(service, "maxCities", 1000);
+    }
+
+    @AfterEach
+    void stopTimer() {
+        timer.stop();
+    }
+
+    @Test
+    void rejectsAggregationAboveMaxCitiesBeforeAllocating() {
+        service.aggregateWeatherResponse(response("huge", Integer.MAX_VALUE, 0));
+        service.aggregateWeatherResponse(response("huge", Integer.MAX_VALUE, 1));
+
+        assertThat(store()).isEmpty();
+        verifyNoInteractions(rabbitTemplate);
+    }
+
+    @Test
+    void rejectsAggregationLargerThanWholeByteBudget() {
+        // 500 слотов не помещаются в бюджет 1KB даже в пустом хранилище
+        service.aggregateWeatherResponse(response("large", 500, 0));
+
+        assertThat(store()).isEmpty();
+        verifyNoInteractions(rabbitTemplate);
+    }
+
+    @Test
+    void shedsOldestAggregationBeforeAllocatingNewOne() {
+        service.aggregateWeatherResponse(response("first", 50, 0));
+        assertThat(store()).containsOnlyKeys("first");
+
+        service.aggregateWeatherResponse(response("second", 20, 0));
+
+        assertThat(store()).containsOnlyKeys("second");
+        assertThat(((AtomicLong) ReflectionTestUtils.getField(service, "storeBytes")).get())
+                .isLessThanOrEqualTo(DataSize.ofKilobytes(1).toBytes());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> store() {
+        return (Map<String, ?>) ReflectionTestUtils.getField(service, "aggregationStore");
+    }
+
+    private static WeatherResponse response(String correlationId, int totalCities, int cityIndex) {
+        WeatherResponse response = new WeatherResponse();
+        response.setCorrelationId(correlationId);
+        response.setCity("Moscow");
+        response.setTemperature(20.5);
+        response.setSuccess(true);
+        response.setTimestamp(LocalDateTime.now());
+        response.setReplyTo("reply.queue");
+        response.setTotalCities(totalCities);
+        response.setCityIndex(cityIndex);
+        return response;
+    }
+}
@@ -0,0 +1,80 @@
+package com.weather.aggregator.timer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedWheelTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(Duration.ofMillis(10), 8, Runnable::run, "test-wheel");
+
+    @AfterEach
+    void stopTimer() {
+        timer.stop();
+    }
+
+    @Test
+    void firesTaskAfterDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicLong firedAtNanos = new AtomicLong();
+        long scheduledAtNanos = System.nanoTime();
+
+        timer.newTimeout(() -> {
+            firedAtNanos.set(System.nanoTime());
+            fired.countDown();
+        }, Duration.ofMillis(100));
+
+        assertThat(fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(firedAtNanos.get() - scheduledAtNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(timer.getActiveCount()).isZero();
+    }
+
+    @Test
+    void firesTaskSeveralRotationsAhead() throws InterruptedException {
+        // 8 ячеек по 10ms: 250ms - это больше трех оборотов колеса
+        CountDownLatch fired = new CountDownLatch(1);
+        long scheduledAtNanos = System.nanoTime();
+
+        timer.newTimeout(fired::countDown, Duration.ofMillis(250));
+
+        assertThat(fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(System.nanoTime() - scheduledAtNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test
+    void cancelledTaskDoesNotFire() throws InterruptedException {
+        AtomicBoolean fired = new AtomicBoolean();
+        CountDownLatch control = new CountDownLatch(1);
+
+        WheelTimeout timeout = timer.newTimeout(() -> fired.set(true), Duration.ofMillis(50));
+        timer.newTimeout(control::countDown, Duration.ofMillis(150));
+
+        assertThat(timer.getActiveCount()).isEqualTo(2);
+        assertThat(timeout.cancel()).isTrue();
+        assertThat(timeout.isCancelled()).isTrue();
+        assertThat(timeout.cancel()).isFalse();
+        assertThat(timer.getActiveCount()).isEqualTo(1);
+
+        assertThat(control.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(fired).isFalse();
+        assertThat(timer.getActiveCount()).isZero();
+    }
+
+    @Test
+    void cancelAfterFiringReturnsFalse() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+
+        WheelTimeout timeout = timer.newTimeout(fired::countDown, Duration.ZERO);
+
+        assertThat(fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(timeout.cancel()).isFalse();
+        assertThat(timer.getActiveCount()).isZero();
+    }
+}
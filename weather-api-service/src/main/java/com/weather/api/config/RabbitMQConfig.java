@@ -12,9 +12,13 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.UUID;
+
 /**
  * Конфигурация RabbitMQ для Weather API Service.
  * 
+ * Каждый экземпляр сервиса объявляет собственные очереди ответов, поэтому
+ * несколько реплик могут работать за балансировщиком нагрузки.
  */
 @Configuration
 public class RabbitMQConfig {
@@ -31,21 +35,41 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.routing-key.aggregated}")
     private String aggregatedRoutingKey;
 
+    private static final String INDIVIDUAL_RESPONSE_QUEUE = "weather.individual.response.queue";
+    private static final String INDIVIDUAL_RESPONSE_ROUTING_KEY = "weather.individual.response";
+
+
+    @Value("${rabbitmq.reply.instance-id:}")
+    private String configuredInstanceId;
+
+    /**
+     * Идентификатор экземпляра API сервиса.
+     * Передается в WeatherMessage.replyTo, чтобы агрегатор отправлял ответы
+     * именно тому экземпляру, который принял запрос от клиента.
+     * Если rabbitmq.reply.instance-id не задан, генерируется случайный UUID.
+     */
+    @Bean
+    public String instanceId() {
+        return configuredInstanceId == null || configuredInstanceId.isBlank()
+                ? UUID.randomUUID().toString()
+                : configuredInstanceId;
+    }
 
     /**
-     * Очередь для получения агрегированных результатов.
+     * Очередь экземпляра для получения агрегированных результатов.
+     * Эксклюзивная и auto-delete: живет ровно столько, сколько живет экземпляр.
      */
     @Bean
-    public Queue aggregatedQueue() {
-        return new Queue(aggregatedQueueName, true);
+    public Queue aggregatedQueue(String instanceId) {
+        return new Queue(aggregatedQueueName + "." + instanceId, false, true, true);
     }
 
     /**
-     * НОВОЕ: Очередь для индивидуальных результатов (WebSocket режим).
+     * Очередь экземпляра для индивидуальных результатов (WebSocket режим).
      */
     @Bean
-    public Queue individualResponseQueue() {
-        return new Queue("weather.individual.response.queue", true);
+    public Queue individualResponseQueue(String instanceId) {
+        return new Queue(INDIVIDUAL_RESPONSE_QUEUE + "." + instanceId, false, true, true);
     }
 
     /**
@@ -58,25 +82,48 @@ public class RabbitMQConfig {
 
 
     /**
-     * Binding для связи очереди агрегированных результатов с exchange.
+     * Binding очереди агрегированных результатов по адресному ключу weather.aggregated.{instanceId}.
      */
     @Bean
-    public Binding aggregatedBinding(Queue aggregatedQueue, TopicExchange weatherExchange) {
+    public Binding aggregatedBinding(Queue aggregatedQueue, TopicExchange weatherExchange, String instanceId) {
         return BindingBuilder
                 .bind(aggregatedQueue)
                 .to(weatherExchange)
-                .with(aggregatedRoutingKey);
+                .with(aggregatedRoutingKey + "." + instanceId);
+    }
+
+    /**
+     * Binding очереди индивидуальных результатов по ключу weather.individual.response.{instanceId}.
+     */
+    @Bean
+    public Binding individualResponseBinding(Queue individualResponseQueue, TopicExchange weatherExchange,
+                                             String instanceId) {
+        return BindingBuilder
+                .bind(individualResponseQueue)
+                .to(weatherExchange)
+                .with(INDIVIDUAL_RESPONSE_ROUTING_KEY + "." + instanceId);
     }
 
     /**
-     * НОВОЕ: Binding для очереди индивидуальных результатов
+     * Binding'и на общие ключи weather.aggregated и weather.individual.response.
+     * Старые версии consumer/агрегатора не знают replyTo и публикуют ответы с общим ключом;
+     * на время rolling upgrade такие ответы получает каждый экземпляр, и обрабатывает
+     * тот, у которого есть ожидающий запрос с этим correlationId.
      */
     @Bean
-    public Binding individualResponseBinding(Queue individualResponseQueue, TopicExchange weatherExchange) {
+    public Binding aggregatedSharedBinding(Queue aggregatedQueue, TopicExchange weatherExchange) {
+        return BindingBuilder
+                .bind(aggregatedQueue)
+                .to(weatherExchange)
+                .with(aggregatedRoutingKey);
+    }
+
+    @Bean
+    public Binding individualResponseSharedBinding(Queue individualResponseQueue, TopicExchange weatherExchange) {
         return BindingBuilder
                 .bind(individualResponseQueue)
                 .to(weatherExchange)
-                .with("weather.individual.response");
+                .with(INDIVIDUAL_RESPONSE_ROUTING_KEY);
     }
 
     /**
@@ -1,6 +1,5 @@
 package com.weather.api.controller;
 
-import com.weather.api.dto.AggregatedWeatherReport;
 import com.weather.api.dto.WeatherRequestDto;
 import com.weather.api.service.WeatherService;
 import lombok.RequiredArgsConstructor;
@@ -9,6 +8,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * REST контроллер для обработки HTTP запросов на получение прогнозов погоды.
  * Предоставляет API endpoint для фронтенда.
@@ -53,36 +54,38 @@ public class WeatherController {
      *   "timestamp": "2025-10-30T10:00:00"
      * }
      * 
+     * Обработка асинхронная: поток Tomcat освобождается сразу после публикации сообщений,
+     * а ответ отправляется, когда агрегированный отчет придет из RabbitMQ
+     * (или по таймауту weather.http.timeout с частичным отчетом).
+     * 
      * @param requestDto DTO с списком городов
-     * @return ResponseEntity с агрегированным отчетом или ошибкой
+     * @return CompletableFuture с ResponseEntity агрегированного отчета или ошибки
      */
     @PostMapping("/forecast")
-    public ResponseEntity<?> getWeatherForecast(@RequestBody WeatherRequestDto requestDto) {
+    public CompletableFuture<ResponseEntity<?>> getWeatherForecast(@RequestBody WeatherRequestDto requestDto) {
+        // Валидация входных данных
+        if (requestDto.getCities() == null || requestDto.getCities().isEmpty()) {
+            log.warn("Empty cities list in request");
+            return CompletableFuture.completedFuture(ResponseEntity
+                    .badRequest()
+                    .body("Cities list cannot be empty"));
+        }
+
         log.info("Received weather forecast request for {} cities", requestDto.getCities().size());
-        
-        try {
-            // Валидация входных данных
-            if (requestDto.getCities() == null || requestDto.getCities().isEmpty()) {
-                log.warn("Empty cities list in request");
-                return ResponseEntity
-                        .badRequest()
-                        .body("Cities list cannot be empty");
-            }
 
-            // Обработка запроса через сервис
-            AggregatedWeatherReport report = weatherService.processWeatherRequest(requestDto);
-            
-            log.info("Successfully processed weather request, returning {} reports", 
-                    report.getReports().size());
-            
-            return ResponseEntity.ok(report);
-            
-        } catch (Exception e) {
-            log.error("Error processing weather request: {}", e.getMessage(), e);
-            return ResponseEntity
-                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("Error processing request: " + e.getMessage());
-        }
+        // Обработка запроса через сервис
+        return weatherService.processWeatherRequest(requestDto)
+                .<ResponseEntity<?>>thenApply(report -> {
+                    log.info("Successfully processed weather request, returning {} reports",
+                            report.getReports().size());
+                    return ResponseEntity.ok(report);
+                })
+                .exceptionally(e -> {
+                    log.error("Error processing weather request: {}", e.getMessage(), e);
+                    return ResponseEntity
+                            .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body("Error processing request: " + e.getMessage());
+                });
     }
 
     /**
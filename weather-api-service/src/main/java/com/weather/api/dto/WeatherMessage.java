@@ -35,4 +35,20 @@ public class WeatherMessage implements Serializable {
      * Временная метка создания сообщения
      */
     private LocalDateTime timestamp;
+
+    /**
+     * Идентификатор экземпляра API сервиса, которому адресуются ответы
+     */
+    private String replyTo;
+
+    /**
+     * Приоритет запроса (0..rabbitmq.queue.max-priority): интерактивные запросы
+     * обслуживаются раньше пакетных
+     */
+    private int priority;
+
+    /**
+     * Позиция города в запросе (0..totalCities-1): слот результата в агрегированном отчете
+     */
+    private Integer cityIndex;
 }
@@ -19,4 +19,12 @@ public class WeatherRequestDto {
      * Список названий городов для запроса погоды
      */
     private List<String> cities;
+
+    /**
+     * Необязательный приоритет запроса. Если не задан, используется приоритет режима
+     * (weather.priority.http / websocket). HTTP запрос не может подняться до полосы
+     * WebSocket: его приоритет ограничен weather.priority.websocket - 1,
+     * WebSocket - weather.priority.max.
+     */
+    private Integer priority;
 }
@@ -13,12 +13,16 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.WebSocketSession;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
@@ -27,12 +31,30 @@ public class WeatherService {
 
     private final RabbitTemplate rabbitTemplate;
 
+    @Value("#{instanceId}")
+    private String instanceId;
+
     @Value("${rabbitmq.exchange.weather}")
     private String exchangeName;
 
     @Value("${rabbitmq.routing-key.request}")
     private String requestRoutingKey;
 
+    @Value("${weather.priority.http:1}")
+    private int httpPriority;
+
+    @Value("${weather.priority.websocket:8}")
+    private int webSocketPriority;
+
+    @Value("${weather.priority.max:9}")
+    private int maxPriority;
+
+    @Value("${weather.http.timeout:60s}")
+    private Duration httpTimeout;
+
+    @Value("${weather.http.timeout-message:Timeout after %ds: aggregated report was not received}")
+    private String timeoutMessage;
+
     private final Map<String, CompletableFuture<AggregatedWeatherReport>> pendingRequests = 
             new ConcurrentHashMap<>();
 
@@ -40,39 +62,100 @@ public class WeatherService {
     private final Map<String, WeatherWebSocketHandler> webSocketHandlers = new ConcurrentHashMap<>();
 
     /**
-     * СТАРЫЙ РЕЖИМ: HTTP Request-Reply
+     * РЕЖИМ HTTP Request-Reply (асинхронный).
+     *
+     * Поток сервлета не блокируется в ожидании отчета: метод публикует сообщения
+     * и сразу возвращает CompletableFuture, который завершается в receiveAggregatedReport().
+     * Если отчет не пришел за weather.http.timeout, future завершается частичным отчетом
+     * с причиной из weather.http.timeout-message.
      */
-    public AggregatedWeatherReport processWeatherRequest(WeatherRequestDto requestDto) throws Exception {
+    public CompletableFuture<AggregatedWeatherReport> processWeatherRequest(WeatherRequestDto requestDto) {
         String correlationId = UUID.randomUUID().toString();
         log.info("🔄 [HTTP MODE] Processing weather request with correlation ID: {}", correlationId);
         log.info("Cities requested: {}", requestDto.getCities());
 
-        CompletableFuture<AggregatedWeatherReport> future = new CompletableFuture<>();
-        pendingRequests.put(correlationId, future);
-
         int totalCities = requestDto.getCities().size();
-        for (String city : requestDto.getCities()) {
-            WeatherMessage message = new WeatherMessage(
-                    correlationId,
-                    city,
-                    totalCities,
-                    LocalDateTime.now()
-            );
-
-            log.debug("📤 Sending message for city: {} with correlation ID: {}", city, correlationId);
-            rabbitTemplate.convertAndSend(exchangeName, requestRoutingKey, message);
-        }
 
+        CompletableFuture<AggregatedWeatherReport> pending = new CompletableFuture<>();
+        pendingRequests.put(correlationId, pending);
+        pending.whenComplete((report, error) -> pendingRequests.remove(correlationId));
+
+        // Таймаут без блокировки потока: orTimeout отменяет отложенную задачу,
+        // как только отчет пришел, поэтому таймеры не копятся под нагрузкой.
+        // Отчет о таймауте строится в момент срабатывания, с актуальным временем.
+        CompletableFuture<AggregatedWeatherReport> future = pending
+                .orTimeout(httpTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionally(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (!(cause instanceof TimeoutException)) {
+                        throw error instanceof CompletionException completion
+                                ? completion : new CompletionException(error);
+                    }
+                    log.warn("⏱️ [HTTP MODE] Timeout waiting for aggregated report for correlation ID: {}",
+                            correlationId);
+                    return buildTimeoutReport(correlationId, totalCities);
+                });
+
+        // Пакетный HTTP не может обогнать интерактивную полосу WebSocket
+        int priority = resolvePriority(requestDto, httpPriority, webSocketPriority - 1);
         try {
-            AggregatedWeatherReport report = future.get(60, TimeUnit.SECONDS);
-            log.info("✅ [HTTP MODE] Received aggregated report for correlation ID: {}", correlationId);
-            return report;
+            for (int cityIndex = 0; cityIndex < totalCities; cityIndex++) {
+                String city = requestDto.getCities().get(cityIndex);
+                WeatherMessage message = new WeatherMessage(
+                        correlationId,
+                        city,
+                        totalCities,
+                        LocalDateTime.now(),
+                        instanceId,
+                        priority,
+                        cityIndex
+                );
+
+                log.debug("📤 Sending message for city: {} with correlation ID: {}", city, correlationId);
+                sendRequest(message);
+            }
         } catch (Exception e) {
-            log.error("❌ [HTTP MODE] Error or timeout waiting for aggregated report: {}", e.getMessage());
-            throw new Exception("Failed to get weather data: " + e.getMessage());
-        } finally {
-            pendingRequests.remove(correlationId);
+            log.error("❌ [HTTP MODE] Error sending weather request: {}", e.getMessage());
+            pending.completeExceptionally(e);
         }
+
+        return future;
+    }
+
+    /**
+     * Приоритет из запроса, ограниченный потолком режима, или приоритет режима по умолчанию.
+     */
+    private int resolvePriority(WeatherRequestDto requestDto, int modePriority, int ceiling) {
+        int priority = requestDto.getPriority() != null ? requestDto.getPriority() : modePriority;
+        return Math.max(0, Math.min(priority, Math.min(ceiling, maxPriority)));
+    }
+
+    /**
+     * Публикация запроса с AMQP приоритетом: очередь запросов (x-max-priority)
+     * выдает сообщения с большим приоритетом раньше.
+     */
+    private void sendRequest(WeatherMessage message) {
+        rabbitTemplate.convertAndSend(exchangeName, requestRoutingKey, message, amqpMessage -> {
+            amqpMessage.getMessageProperties().setPriority(message.getPriority());
+            return amqpMessage;
+        });
+    }
+
+    /**
+     * Отчет, которым завершается HTTP запрос, если агрегатор не ответил вовремя.
+     */
+    private AggregatedWeatherReport buildTimeoutReport(String correlationId, int totalCities) {
+        AggregatedWeatherReport report = new AggregatedWeatherReport();
+        report.setCorrelationId(correlationId);
+        report.setTotalCities(totalCities);
+        report.setSuccessCount(0);
+        report.setFailureCount(0);
+        report.setReports(new ArrayList<>());
+        report.setTimestamp(LocalDateTime.now());
+        report.setPartial(true);
+        report.setPartialReason(String.format(timeoutMessage, httpTimeout.getSeconds()));
+        return report;
     }
 
     /**
@@ -100,16 +183,21 @@ public class WeatherService {
             ));
 
             int totalCities = requestDto.getCities().size();
-            for (String city : requestDto.getCities()) {
+            int priority = resolvePriority(requestDto, webSocketPriority, maxPriority);
+            for (int cityIndex = 0; cityIndex < totalCities; cityIndex++) {
+                String city = requestDto.getCities().get(cityIndex);
                 WeatherMessage message = new WeatherMessage(
                         correlationId,
                         city,
                         totalCities,
-                        LocalDateTime.now()
+                        LocalDateTime.now(),
+                        instanceId,
+                        priority,
+                        cityIndex
                 );
 
                 log.debug("📤 Sending message for city: {} with correlation ID: {}", city, correlationId);
-                rabbitTemplate.convertAndSend(exchangeName, requestRoutingKey, message);
+                sendRequest(message);
             }
 
             log.info("✅ All {} messages sent to RabbitMQ for correlation ID: {}", 
@@ -128,7 +216,7 @@ public class WeatherService {
     /**
      * КЛЮЧЕВОЙ МЕТОД: Получение индивидуальных результатов от Aggregator
      */
-    @RabbitListener(queues = "weather.individual.response.queue")
+    @RabbitListener(queues = "#{individualResponseQueue.name}")
     public void receiveIndividualWeatherResponse(WeatherData weatherData) {
         String correlationId = weatherData.getCorrelationId();
         log.info("📦 [WEBSOCKET] Received individual weather data for city: {} (correlation ID: {})",
@@ -156,7 +244,7 @@ public class WeatherService {
     /**
      * Получение финального агрегированного отчета
      */
-    @RabbitListener(queues = "${rabbitmq.queue.aggregated}")
+    @RabbitListener(queues = "#{aggregatedQueue.name}")
     public void receiveAggregatedReport(AggregatedWeatherReport report) {
         String correlationId = report.getCorrelationId();
         log.info("📊 Received aggregated report for correlation ID: {}", correlationId);
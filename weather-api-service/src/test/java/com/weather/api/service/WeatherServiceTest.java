@@ -0,0 +1,105 @@
+package com.weather.api.service;
+
+import com.weather.api.dto.AggregatedWeatherReport;
+import com.weather.api.dto.WeatherMessage;
+import com.weather.api.dto.WeatherRequestDto;
+import com.weather.api.websocket.WeatherWebSocketHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class WeatherServiceTest {
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final WeatherService weatherService = new WeatherService(rabbitTemplate);
+
+    @BeforeEach
+    void configure() {
+        ReflectionTestUtils.setField(weatherService, "instanceId", "api-1");
+        ReflectionTestUtils.setField(weatherService, "exchangeName", "weather.exchange");
+        ReflectionTestUtils.setField(weatherService, "requestRoutingKey", "weather.request");
+        ReflectionTestUtils.setField(weatherService, "httpPriority", 1);
+        ReflectionTestUtils.setField(weatherService, "webSocketPriority", 8);
+        ReflectionTestUtils.setField(weatherService, "maxPriority", 9);
+        ReflectionTestUtils.setField(weatherService, "httpTimeout", Duration.ofSeconds(60));
+        ReflectionTestUtils.setField(weatherService, "timeoutMessage", "Timeout after %ds");
+    }
+
+    @Test
+    void httpRequestCannotReachWebSocketLane() {
+        weatherService.processWeatherRequest(new WeatherRequestDto(List.of("Moscow"), 9));
+
+        assertThat(sentMessage().getPriority()).isEqualTo(7);
+    }
+
+    @Test
+    void httpRequestMayLowerItsPriority() {
+        weatherService.processWeatherRequest(new WeatherRequestDto(List.of("Moscow"), 0));
+
+        assertThat(sentMessage().getPriority()).isZero();
+    }
+
+    @Test
+    void httpRequestWithoutPriorityUsesHttpLane() {
+        weatherService.processWeatherRequest(new WeatherRequestDto(List.of("Moscow"), null));
+
+        assertThat(sentMessage().getPriority()).isEqualTo(1);
+    }
+
+    @Test
+    void webSocketRequestIsCappedByMaxPriority() {
+        weatherService.processWeatherRequestWebSocket(new WeatherRequestDto(List.of("Moscow"), 42),
+                mock(WebSocketSession.class), mock(WeatherWebSocketHandler.class));
+
+        assertThat(sentMessage().getPriority()).isEqualTo(9);
+    }
+
+    @Test
+    void timeoutReportIsStampedWhenTimeoutFires() throws Exception {
+        ReflectionTestUtils.setField(weatherService, "httpTimeout", Duration.ofMillis(200));
+        LocalDateTime requestedAt = LocalDateTime.now();
+
+        AggregatedWeatherReport report = weatherService
+                .processWeatherRequest(new WeatherRequestDto(List.of("Moscow"), null))
+                .get(2, TimeUnit.SECONDS);
+
+        assertThat(report.isPartial()).isTrue();
+        assertThat(report.getTimestamp()).isAfterOrEqualTo(requestedAt.plus(Duration.ofMillis(200)));
+    }
+
+    @Test
+    void aggregatedReportCompletesHttpRequest() throws Exception {
+        CompletableFuture<AggregatedWeatherReport> future =
+                weatherService.processWeatherRequest(new WeatherRequestDto(List.of("Moscow"), null));
+        AggregatedWeatherReport report = new AggregatedWeatherReport();
+        report.setCorrelationId(sentMessage().getCorrelationId());
+
+        weatherService.receiveAggregatedReport(report);
+
+        assertThat(future.get(1, TimeUnit.SECONDS)).isSameAs(report);
+    }
+
+    private WeatherMessage sentMessage() {
+        ArgumentCaptor<Object> message = ArgumentCaptor.forClass(Object.class);
+        verify(rabbitTemplate).convertAndSend(eq("weather.exchange"), anyString(), message.capture(),
+                any(MessagePostProcessor.class));
+        return (WeatherMessage) message.getValue();
+    }
+}
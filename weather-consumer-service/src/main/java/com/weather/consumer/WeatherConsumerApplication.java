@@ -3,6 +3,7 @@ package com.weather.consumer;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Главный класс приложения Weather Consumer Service.
@@ -10,6 +11,7 @@ import org.springframework.cache.annotation.EnableCaching;
  * и отправку результатов в очередь ответов.
  */
 @SpringBootApplication
+@EnableScheduling // Упреждающее обновление популярных городов и старение их статистики
 public class WeatherConsumerApplication {
 
     public static void main(String[] args) {
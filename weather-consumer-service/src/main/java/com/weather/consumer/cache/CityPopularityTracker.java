@@ -0,0 +1,163 @@
+package com.weather.consumer.cache;
+
+import com.weather.consumer.client.WeatherApiClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Частота запросов по городам в ограниченной памяти.
+ * 
+ * Count-min sketch (depth x width счетчиков) оценивает число запросов любого
+ * города сверху без хранения самих городов; инкременты без блокировок.
+ * Рядом поддерживается top-K самых частых городов (weather.cache.prefetch.top-k).
+ * Раз в decay-interval все счетчики делятся пополам, чтобы популярность
+ * отражала недавний спрос, а не всю историю.
+ * 
+ * Путь record() для городов из top-K и для городов реже минимума top-K
+ * обходится без монитора; блокировка и поиск минимума нужны только при
+ * вытеснении из top-K. При выключенном prefetch запросы не учитываются.
+ */
+@Slf4j
+@Component
+public class CityPopularityTracker {
+
+    private static final int DEPTH = 4;
+
+    private final boolean enabled;
+    private final int width;
+    private final int topK;
+    private final AtomicIntegerArray counters;
+    private final long[] seeds = new long[DEPTH];
+
+    // Top-K: ключ города -> оценка частоты и название для запроса.
+    // Обновление оценок участников - без блокировки, вставка и вытеснение - под монитором this
+    private final Map<String, Integer> topEstimates = new ConcurrentHashMap<>();
+    private final Map<String, String> topCities = new ConcurrentHashMap<>();
+
+    // Наименьшая оценка в заполненном top-K (0, пока top-K не заполнен);
+    // может отставать в меньшую сторону, тогда уточняется под монитором
+    private volatile int minTopEstimate;
+
+    public CityPopularityTracker(
+            @Value("${weather.cache.prefetch.enabled:false}") boolean enabled,
+            @Value("${weather.cache.prefetch.sketch-width:2048}") int width,
+            @Value("${weather.cache.prefetch.top-k:50}") int topK) {
+        this.enabled = enabled;
+        this.width = width;
+        this.topK = topK;
+        this.counters = new AtomicIntegerArray(DEPTH * width);
+        for (int row = 0; row < DEPTH; row++) {
+            seeds[row] = ThreadLocalRandom.current().nextLong() | 1;
+        }
+    }
+
+    /**
+     * Учитывает запрос погоды для города.
+     */
+    public void record(String city) {
+        if (!enabled) {
+            return;
+        }
+        String key = WeatherApiClient.cacheKey(city);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(row, key)));
+        }
+        int current = estimate;
+        if (topEstimates.computeIfPresent(key, (k, value) -> Math.max(value, current)) != null) {
+            return;
+        }
+        if (topEstimates.size() >= topK && estimate <= minTopEstimate) {
+            return;
+        }
+        insertTop(key, city, estimate);
+    }
+
+    /**
+     * Оценка числа запросов города (не меньше истинного значения).
+     */
+    public int estimate(String city) {
+        String key = WeatherApiClient.cacheKey(city);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, key)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Самые популярные города по убыванию частоты.
+     */
+    public List<String> getTopCities() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(Map.copyOf(topEstimates).entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        return entries.stream()
+                .map(entry -> topCities.get(entry.getKey()))
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Старение: все счетчики и оценки top-K делятся пополам, нулевые города выбывают из top-K.
+     */
+    @Scheduled(fixedDelayString = "${weather.cache.prefetch.decay-interval:10m}",
+            initialDelayString = "${weather.cache.prefetch.decay-interval:10m}")
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, value -> value >> 1);
+        }
+        synchronized (this) {
+            topEstimates.replaceAll((key, value) -> value >> 1);
+            topEstimates.values().removeIf(value -> value == 0);
+            topCities.keySet().retainAll(topEstimates.keySet());
+            minTopEstimate = topEstimates.size() < topK ? 0 : findMin().getValue();
+        }
+        log.debug("City popularity decayed, {} cities in top-K", topEstimates.size());
+    }
+
+    private synchronized void insertTop(String key, String city, int estimate) {
+        if (topEstimates.containsKey(key) || topEstimates.size() < topK) {
+            topCities.putIfAbsent(key, city);
+            topEstimates.merge(key, estimate, Math::max);
+            if (topEstimates.size() >= topK) {
+                minTopEstimate = findMin().getValue();
+            }
+            return;
+        }
+        // Вытесняем наименее популярный город, если новый встречается чаще
+        Map.Entry<String, Integer> min = findMin();
+        if (estimate > min.getValue()) {
+            topEstimates.remove(min.getKey());
+            topCities.remove(min.getKey());
+            topCities.put(key, city);
+            topEstimates.put(key, estimate);
+            min = findMin();
+        }
+        minTopEstimate = min.getValue();
+    }
+
+    private Map.Entry<String, Integer> findMin() {
+        Map.Entry<String, Integer> min = null;
+        for (Map.Entry<String, Integer> entry : topEstimates.entrySet()) {
+            if (min == null || entry.getValue() < min.getValue()) {
+                min = Map.entry(entry.getKey(), entry.getValue());
+            }
+        }
+        return min == null ? Map.entry("", 0) : min;
+    }
+
+    private int index(int row, String key) {
+        long hash = (key.hashCode() * 0x9E3779B97F4A7C15L + seeds[row]) * seeds[row];
+        return row * width + (int) Math.floorMod(hash >>> 17, (long) width);
+    }
+}
@@ -0,0 +1,72 @@
+package com.weather.consumer.cache;
+
+import com.rabbitmq.client.Channel;
+import com.weather.consumer.client.WeatherApiClient;
+import com.weather.consumer.client.WeatherFetchedEvent;
+import com.weather.consumer.dto.CacheSyncMessage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Обмен кэшем погоды между экземплярами consumer через RabbitMQ.
+ * 
+ * Каждый успешный запрос к Weather API рассылается всем экземплярам,
+ * и они кладут данные в свой локальный кэш: город запрашивается у API
+ * один раз на кластер, а не один раз на каждую реплику.
+ * Фоновое обновление (refresh-ahead) тоже рассылается и сбрасывает
+ * таймеры обновления у соседей, поэтому обновляет запись одна реплика.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(value = "weather.cache.sync.enabled", havingValue = "true")
+public class ClusterCacheSync {
+
+    private final WeatherApiClient weatherApiClient;
+    private final RabbitTemplate rabbitTemplate;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    @Value("${weather.cache.sync.exchange:weather.cache.sync.exchange}")
+    private String exchangeName;
+
+    /**
+     * Рассылает полученные из API данные остальным экземплярам
+     */
+    @EventListener
+    public void onWeatherFetched(WeatherFetchedEvent event) {
+        try {
+            rabbitTemplate.convertAndSend(exchangeName, "",
+                    new CacheSyncMessage(instanceId, event.cacheKey(), event.fetchedAtMillis(), event.response()));
+        } catch (AmqpException e) {
+            // Обмен кэшем - оптимизация: ошибка не должна ломать обработку запроса
+            log.warn("Failed to publish cache sync for {}: {}", event.cacheKey(), e.getMessage());
+        }
+    }
+
+    /**
+     * Принимает данные, полученные соседними экземплярами
+     */
+    @RabbitListener(queues = "#{cacheSyncQueue.name}")
+    public void onPeerWeather(CacheSyncMessage syncMessage, Message message, Channel channel) throws IOException {
+        try {
+            if (!instanceId.equals(syncMessage.getOriginId()) && syncMessage.getResponse() != null) {
+                weatherApiClient.acceptPeerWeather(syncMessage.getCacheKey(), syncMessage.getResponse());
+                log.debug("🔄 Cache sync: {} received from peer {}", syncMessage.getCacheKey(), syncMessage.getOriginId());
+            }
+        } finally {
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.weather.consumer.cache;
+
+import com.weather.consumer.client.WeatherFetchedEvent;
+import com.weather.consumer.dto.OpenWeatherMapResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Постоянный кэш второго уровня (L2) для данных о погоде.
+ *
+ * Хранит компактные записи по городам в memory-mapped файле вне heap, поэтому
+ * переживает перезапуск consumer: после деплоя кэш сразу "теплый", и не нужно
+ * заново заполнять его через rate limiter внешнего API.
+ *
+ * Формат файла: заголовок (magic, version, slotCount, slotSize) и таблица
+ * слотов фиксированного размера с открытой адресацией (linear probing) по ключу города.
+ * Слот: state, writtenAt, expiresAt, id, temp, humidity, windSpeed, key, name, main, description
+ * и CRC32 содержимого в последних 4 байтах. Контрольная сумма пишется после данных
+ * и проверяется при чтении: запись, перезаписанная не до конца (сбой или другой процесс
+ * с тем же файлом), считается отсутствующей.
+ *
+ * Включается weather.cache.l2.enabled; при выключенном L2 все методы ничего не делают.
+ */
+@Slf4j
+@Component
+public class MappedWeatherStore {
+
+    private static final int MAGIC = 0x57544852; // "WTHR"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 256;
+    // Данные слота без байта state и CRC32
+    private static final int PAYLOAD_SIZE = SLOT_SIZE - 1 - Integer.BYTES;
+
+    private static final byte SLOT_EMPTY = 0;
+    private static final byte SLOT_USED = 1;
+
+    @Value("${weather.cache.l2.enabled:false}")
+    private boolean enabled;
+
+    @Value("${weather.cache.l2.path:./data/weather-l2.dat}")
+    private Path path;
+
+    @Value("${weather.cache.l2.slots:4096}")
+    private int slotCount;
+
+    @Value("${weather.cache.max-staleness:10m}")
+    private Duration ttl;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = channel.size() != size;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != slotCount || buffer.getInt(12) != SLOT_SIZE) {
+            log.info("Initializing L2 weather store {} ({} slots)", path, slotCount);
+            for (int slot = 0; slot < slotCount; slot++) {
+                buffer.put(offset(slot), SLOT_EMPTY);
+            }
+            buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slotCount).putInt(12, SLOT_SIZE);
+        } else {
+            log.info("Opened L2 weather store {} ({} slots)", path, slotCount);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ищет неустаревшую запись по ключу города.
+     *
+     * @param key нормализованный ключ города
+     * @return данные о погоде со временем их получения или null
+     */
+    public StoredWeather get(String key) {
+        return lookup(key, false);
+    }
+
+    /**
+     * Ищет запись по ключу города, в том числе устаревшую (еще не перезаписанную).
+     * Используется как последний известный ответ, пока Weather API недоступен.
+     *
+     * @param key нормализованный ключ города
+     * @return данные о погоде или null
+     */
+    public OpenWeatherMapResponse getStale(String key) {
+        StoredWeather stored = lookup(key, true);
+        return stored == null ? null : stored.response();
+    }
+
+    private synchronized StoredWeather lookup(String key, boolean includeExpired) {
+        if (!enabled) {
+            return null;
+        }
+        int slot = findSlot(key);
+        if (slot < 0 || buffer.get(offset(slot)) != SLOT_USED) {
+            return null;
+        }
+        int offset = offset(slot);
+        if (!includeExpired && buffer.getLong(offset + 9) < System.currentTimeMillis()) {
+            return null;
+        }
+        if (!checksumValid(offset)) {
+            log.warn("L2 record for {} failed checksum validation, ignored", key);
+            return null;
+        }
+        return new StoredWeather(read(offset), buffer.getLong(offset + 1));
+    }
+
+    /**
+     * Передает все неустаревшие записи в consumer (ключ, данные со временем получения).
+     * Используется для прогрева L1 кэша при старте.
+     */
+    public synchronized void forEachLive(BiConsumer<String, StoredWeather> consumer) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset) == SLOT_USED && buffer.getLong(offset + 9) >= now && checksumValid(offset)) {
+                consumer.accept(readKey(offset), new StoredWeather(read(offset), buffer.getLong(offset + 1)));
+            }
+        }
+    }
+
+    /**
+     * Записывает каждый успешный ответ внешнего API в L2.
+     */
+    @EventListener
+    public void onWeatherFetched(WeatherFetchedEvent event) {
+        put(event.cacheKey(), event.response(), event.fetchedAtMillis());
+    }
+
+    synchronized void put(String key, OpenWeatherMapResponse response, long writtenAtMillis) {
+        if (!enabled || response.getMain() == null) {
+            return;
+        }
+        byte[] record = encode(key, response, writtenAtMillis);
+        if (record == null) {
+            log.debug("L2 record for {} does not fit into {} bytes, skipped", key, SLOT_SIZE);
+            return;
+        }
+        int slot = findSlotForWrite(key);
+        if (slot < 0) {
+            log.warn("L2 weather store is full, record for {} skipped", key);
+            return;
+        }
+        // CRC пишется после данных, флаг слота - последним: недописанная запись не проходит проверку
+        int offset = offset(slot);
+        buffer.put(offset + 1, record, 1, record.length - 1);
+        buffer.putInt(offset + 1 + PAYLOAD_SIZE, checksum(offset));
+        buffer.put(offset, SLOT_USED);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Слот с данным ключом или первый пустой слот цепочки (если ключа нет); -1 если таблица заполнена.
+     */
+    private int findSlot(String key) {
+        int home = Math.floorMod(key.hashCode(), slotCount);
+        for (int probe = 0; probe < slotCount; probe++) {
+            int slot = (home + probe) % slotCount;
+            int offset = offset(slot);
+            if (buffer.get(offset) == SLOT_EMPTY || key.equals(readKey(offset))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Слот для записи: слот с тем же ключом, иначе первый устаревший слот цепочки, иначе пустой.
+     * Устаревшие слоты переиспользуются, но не очищаются, чтобы не разрывать цепочки поиска.
+     */
+    private int findSlotForWrite(String key) {
+        int home = Math.floorMod(key.hashCode(), slotCount);
+        long now = System.currentTimeMillis();
+        int firstExpired = -1;
+        for (int probe = 0; probe < slotCount; probe++) {
+            int slot = (home + probe) % slotCount;
+            int offset = offset(slot);
+            if (buffer.get(offset) == SLOT_EMPTY) {
+                return firstExpired >= 0 ? firstExpired : slot;
+            }
+            if (key.equals(readKey(offset))) {
+                return slot;
+            }
+            if (firstExpired < 0 && buffer.getLong(offset + 9) < now) {
+                firstExpired = slot;
+            }
+        }
+        return firstExpired;
+    }
+
+    private boolean checksumValid(int offset) {
+        return buffer.getInt(offset + 1 + PAYLOAD_SIZE) == checksum(offset);
+    }
+
+    private int checksum(int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + 1, PAYLOAD_SIZE));
+        return (int) crc.getValue();
+    }
+
+    private int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private byte[] encode(String key, OpenWeatherMapResponse response, long writtenAtMillis) {
+        OpenWeatherMapResponse.Weather weather = response.getWeather() == null || response.getWeather().isEmpty()
+                ? null
+                : response.getWeather().get(0);
+        byte[][] strings = {
+                bytes(key),
+                bytes(response.getName()),
+                bytes(weather == null ? null : weather.getMain()),
+                bytes(weather == null ? null : weather.getDescription())
+        };
+
+        int size = 1 + 8 + 8 + 8 + 8 + 4 + 8;
+        for (byte[] string : strings) {
+            size += 2 + string.length;
+        }
+        if (size > 1 + PAYLOAD_SIZE) {
+            return null;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.put(SLOT_USED)
+                .putLong(writtenAtMillis)
+                .putLong(writtenAtMillis + ttl.toMillis())
+                .putLong(response.getId() == null ? -1 : response.getId())
+                .putDouble(response.getMain().getTemp())
+                .putInt(response.getMain().getHumidity())
+                .putDouble(response.getWind() == null ? 0 : response.getWind().getSpeed());
+        for (byte[] string : strings) {
+            record.putShort((short) string.length).put(string);
+        }
+        return record.array();
+    }
+
+    private OpenWeatherMapResponse read(int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 17);
+        long id = record.getLong();
+
+        OpenWeatherMapResponse.Main main = new OpenWeatherMapResponse.Main();
+        main.setTemp(record.getDouble());
+        main.setHumidity(record.getInt());
+        OpenWeatherMapResponse.Wind wind = new OpenWeatherMapResponse.Wind();
+        wind.setSpeed(record.getDouble());
+
+        readString(record); // key
+        OpenWeatherMapResponse response = new OpenWeatherMapResponse();
+        response.setId(id < 0 ? null : id);
+        response.setName(readString(record));
+        response.setMain(main);
+        response.setWind(wind);
+
+        String weatherMain = readString(record);
+        String description = readString(record);
+        if (weatherMain != null || description != null) {
+            OpenWeatherMapResponse.Weather weather = new OpenWeatherMapResponse.Weather();
+            weather.setMain(weatherMain);
+            weather.setDescription(description);
+            response.setWeather(List.of(weather));
+        }
+        return response;
+    }
+
+    private String readKey(int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 1 + 8 + 8 + 8 + 8 + 4 + 8);
+        return readString(record);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getShort();
+        if (length == 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        record.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
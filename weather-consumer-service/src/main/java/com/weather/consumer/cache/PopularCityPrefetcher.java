@@ -0,0 +1,69 @@
+package com.weather.consumer.cache;
+
+import com.weather.consumer.client.UpstreamRateLimiter;
+import com.weather.consumer.client.WeatherApiClient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Упреждающее обновление популярных городов в кэше "weather".
+ * 
+ * Раз в weather.cache.prefetch.interval берет top-K из CityPopularityTracker и
+ * обновляет города, которых нет в кэше или чья запись старше min-age, - до того,
+ * как пользователь получит промах. Использует только свободный бюджет rate limiter:
+ * - проход пропускается, если у UpstreamRateLimiter есть ожидающие запросы
+ *   или Weather API недоступен (circuit breaker)
+ * - за проход не больше max-per-run обновлений
+ * - обновления идут с наименьшим приоритетом (через WeatherRefreshLoader),
+ *   поэтому запросы пользователей их обгоняют
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PopularCityPrefetcher {
+
+    private final CityPopularityTracker popularityTracker;
+    private final WeatherApiClient weatherApiClient;
+    private final UpstreamRateLimiter upstreamRateLimiter;
+
+    @Value("${weather.cache.prefetch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${weather.cache.prefetch.min-age:3m}")
+    private Duration minAge;
+
+    @Value("${weather.cache.prefetch.max-per-run:5}")
+    private int maxPerRun;
+
+    @Scheduled(fixedDelayString = "${weather.cache.prefetch.interval:15s}")
+    public void prefetch() {
+        if (!enabled || upstreamRateLimiter.getWaitingCount() > 0 || !weatherApiClient.isUpstreamAvailable()) {
+            return;
+        }
+
+        int prefetched = 0;
+        for (String city : popularityTracker.getTopCities()) {
+            if (prefetched >= maxPerRun) {
+                break;
+            }
+            // Город в негативном кэше (например, 404) - разрешение потратится на заведомую ошибку
+            if (weatherApiClient.getKnownFailure(city) != null) {
+                continue;
+            }
+            Duration age = weatherApiClient.getCacheAge(city);
+            if (age == null || age.compareTo(minAge) >= 0) {
+                weatherApiClient.refreshInBackground(city);
+                prefetched++;
+            }
+        }
+
+        if (prefetched > 0) {
+            log.info("🔥 Prefetching {} popular cities", prefetched);
+        }
+    }
+}
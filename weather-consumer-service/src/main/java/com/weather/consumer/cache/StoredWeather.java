@@ -0,0 +1,21 @@
+package com.weather.consumer.cache;
+
+import com.weather.consumer.dto.OpenWeatherMapResponse;
+
+import java.time.Duration;
+
+/**
+ * Запись L2 кэша вместе со временем ее получения от внешнего API.
+ * 
+ * @param response данные о погоде
+ * @param fetchedAtMillis время получения от Weather API (epoch millis), а не время записи в L2
+ */
+public record StoredWeather(OpenWeatherMapResponse response, long fetchedAtMillis) {
+
+    /**
+     * Возраст данных на текущий момент.
+     */
+    public Duration age() {
+        return Duration.ofMillis(Math.max(0, System.currentTimeMillis() - fetchedAtMillis));
+    }
+}
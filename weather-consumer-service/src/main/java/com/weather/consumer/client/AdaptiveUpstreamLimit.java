@@ -0,0 +1,193 @@
+package com.weather.consumer.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Адаптивный лимит запросов к Weather API по схеме AIMD
+ * (additive increase / multiplicative decrease), как у TCP congestion control.
+ * 
+ * WeatherApiClient сообщает о начале и результате каждого HTTP запроса:
+ * - успешный ответ быстрее latency-threshold: скорость и параллелизм
+ *   растут на additive-increase и 1 за "окно" (rate и concurrency ответов)
+ * - 429/503, таймаут или ответ медленнее latency-threshold: оба лимита
+ *   умножаются на decrease-factor (не чаще раза в decrease-cooldown,
+ *   чтобы пачка ответов на уже отправленные запросы не обрушила лимит),
+ *   а Retry-After приостанавливает выдачу разрешений
+ * 
+ * UpstreamRateLimiter учитывает лимиты, только если weather.api.rate-limit.adaptive.enabled;
+ * число запросов в полете считается всегда.
+ * Метрики: weather.upstream.limit.rate, weather.upstream.limit.concurrency, weather.upstream.inflight.
+ */
+@Slf4j
+@Component
+public class AdaptiveUpstreamLimit implements MeterBinder {
+
+    private final boolean enabled;
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final double decreaseFactor;
+    private final long latencyThresholdNanos;
+    private final long decreaseCooldownNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Текущие лимиты, защищены монитором this; volatile - для чтения без блокировки
+    private volatile double rate;
+    private volatile double concurrency;
+    private volatile long pausedUntilNanos;
+    private long lastDecreaseNanos;
+
+    private volatile Runnable onLimitChanged = () -> { };
+
+    public AdaptiveUpstreamLimit(
+            @Value("${weather.api.rate-limit.adaptive.enabled:false}") boolean enabled,
+            @Value("${weather.api.rate-limit.permits-per-second:1.0}") double initialRate,
+            @Value("${weather.api.rate-limit.adaptive.min-permits-per-second:0.1}") double minRate,
+            @Value("${weather.api.rate-limit.adaptive.max-permits-per-second:10.0}") double maxRate,
+            @Value("${weather.api.rate-limit.adaptive.additive-increase:0.1}") double additiveIncrease,
+            @Value("${weather.api.rate-limit.adaptive.initial-concurrency:4}") int initialConcurrency,
+            @Value("${weather.api.rate-limit.adaptive.min-concurrency:1}") int minConcurrency,
+            @Value("${weather.api.rate-limit.adaptive.max-concurrency:20}") int maxConcurrency,
+            @Value("${weather.api.rate-limit.adaptive.decrease-factor:0.5}") double decreaseFactor,
+            @Value("${weather.api.rate-limit.adaptive.latency-threshold:2s}") Duration latencyThreshold,
+            @Value("${weather.api.rate-limit.adaptive.decrease-cooldown:1s}") Duration decreaseCooldown) {
+        this.enabled = enabled;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.decreaseFactor = decreaseFactor;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.decreaseCooldownNanos = decreaseCooldown.toNanos();
+        this.rate = Math.min(Math.max(initialRate, minRate), maxRate);
+        this.concurrency = Math.min(Math.max(initialConcurrency, minConcurrency), maxConcurrency);
+        this.lastDecreaseNanos = System.nanoTime() - decreaseCooldownNanos;
+        if (enabled) {
+            log.info("AdaptiveUpstreamLimit enabled: rate {}..{} req/sec (start {}), concurrency {}..{} (start {})",
+                    minRate, maxRate, rate, minConcurrency, maxConcurrency, (int) concurrency);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Подписка на освобождение места или изменение лимитов (UpstreamRateLimiter.drain).
+     */
+    public void setOnLimitChanged(Runnable onLimitChanged) {
+        this.onLimitChanged = onLimitChanged;
+    }
+
+    public double getPermitsPerSecond() {
+        return rate;
+    }
+
+    public int getConcurrencyLimit() {
+        return (int) concurrency;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Можно ли начать еще запрос, если pending разрешений уже выдано, но запросы еще не начались.
+     */
+    public boolean hasConcurrencyHeadroom(int pending) {
+        return inFlight.get() + pending < (int) concurrency;
+    }
+
+    /**
+     * Сколько еще действует пауза по Retry-After (0, если паузы нет).
+     */
+    public long getPauseRemainingNanos() {
+        return Math.max(pausedUntilNanos - System.nanoTime(), 0);
+    }
+
+    /**
+     * Вызывается перед отправкой HTTP запроса.
+     * 
+     * @return время начала запроса для onRequestEnd
+     */
+    public long onRequestStart() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Вызывается по завершении HTTP запроса.
+     * 
+     * @param startNanos значение onRequestStart
+     * @param error ошибка запроса или null
+     */
+    public void onRequestEnd(long startNanos, Throwable error) {
+        inFlight.decrementAndGet();
+        if (enabled) {
+            long latencyNanos = System.nanoTime() - startNanos;
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+            if (cause instanceof UpstreamHttpException http && http.isThrottled()) {
+                decrease("HTTP " + http.getStatusCode(), http.getRetryAfter());
+            } else if (cause instanceof SocketTimeoutException || cause instanceof TimeoutException) {
+                decrease("timeout", null);
+            } else if (latencyNanos > latencyThresholdNanos) {
+                decrease("latency " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms", null);
+            } else if (cause == null) {
+                increase();
+            }
+            // Прочие ошибки (404, ошибки разбора) не говорят о перегрузке API
+        }
+        onLimitChanged.run();
+    }
+
+    private synchronized void increase() {
+        rate = Math.min(maxRate, rate + additiveIncrease / Math.max(rate, 1.0));
+        concurrency = Math.min(maxConcurrency, concurrency + 1.0 / concurrency);
+    }
+
+    private synchronized void decrease(String reason, Duration retryAfter) {
+        long now = System.nanoTime();
+        if (retryAfter != null) {
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + retryAfter.toNanos());
+        }
+        if (now - lastDecreaseNanos < decreaseCooldownNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        rate = Math.max(minRate, rate * decreaseFactor);
+        concurrency = Math.max(minConcurrency, concurrency * decreaseFactor);
+        log.warn("📉 Upstream limit decreased ({}): {} req/sec, concurrency {}{}", reason,
+                String.format("%.2f", rate), (int) concurrency,
+                retryAfter != null ? ", paused for " + retryAfter : "");
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.upstream.limit.rate", this, AdaptiveUpstreamLimit::getPermitsPerSecond)
+                .description("Current adaptive upstream request rate (req/sec)")
+                .register(registry);
+        Gauge.builder("weather.upstream.limit.concurrency", this, AdaptiveUpstreamLimit::getConcurrencyLimit)
+                .description("Current adaptive upstream concurrency limit")
+                .register(registry);
+        Gauge.builder("weather.upstream.inflight", this, AdaptiveUpstreamLimit::getInFlight)
+                .description("Upstream HTTP requests in flight")
+                .register(registry);
+    }
+}
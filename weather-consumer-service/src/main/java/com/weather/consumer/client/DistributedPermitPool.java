@@ -0,0 +1,199 @@
+package com.weather.consumer.client;
+
+import com.rabbitmq.client.Channel;
+import com.weather.consumer.dto.PermitLeaseGrant;
+import com.weather.consumer.dto.PermitLeaseRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальный запас разрешений, арендованных у глобального эмитента (PermitIssuer).
+ * 
+ * - tryAcquire() без блокировок: CAS-декремент счетчика арендованных разрешений
+ * - когда запас опускается до половины lease-size, в фоне запрашивается новая пачка
+ * - неиспользованные разрешения сгорают по окончании срока аренды
+ * - если эмитент не ответил за issuer-timeout, пул считается недоступным и
+ *   UpstreamRateLimiter переходит на локальное ведро с fallback-permits-per-second;
+ *   запросы аренды продолжают отправляться и первый ответ возвращает глобальный режим
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "weather.api.rate-limit.distributed.enabled", havingValue = "true")
+public class DistributedPermitPool {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final String leaseQueueName;
+    private final String replyQueueName;
+    private final int leaseSize;
+    private final Duration issuerTimeout;
+    private final double fallbackPermitsPerSecond;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final AtomicLong leasedPermits = new AtomicLong();
+    private volatile long leaseExpiresAtNanos;
+
+    private final AtomicBoolean requestInFlight = new AtomicBoolean();
+    private final AtomicLong requestSequence = new AtomicLong();
+    private volatile long nextRequestAtNanos;
+    private volatile boolean issuerAvailable = true;
+
+    private volatile Runnable onPermitsChanged = () -> { };
+
+    // Отправка запросов и проверка таймаутов вне потоков вызывающей стороны
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "permit-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DistributedPermitPool(
+            RabbitTemplate rabbitTemplate,
+            Queue permitLeaseQueue,
+            Queue permitReplyQueue,
+            @Value("${weather.api.rate-limit.distributed.lease-size:5}") int leaseSize,
+            @Value("${weather.api.rate-limit.distributed.issuer-timeout:2s}") Duration issuerTimeout,
+            @Value("${weather.api.rate-limit.distributed.fallback-permits-per-second:0.2}") double fallbackPermitsPerSecond) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.leaseQueueName = permitLeaseQueue.getName();
+        this.replyQueueName = permitReplyQueue.getName();
+        this.leaseSize = leaseSize;
+        this.issuerTimeout = issuerTimeout;
+        this.fallbackPermitsPerSecond = fallbackPermitsPerSecond;
+        log.info("DistributedPermitPool initialized: lease size {}, issuer timeout {}, fallback {} req/sec",
+                leaseSize, issuerTimeout, fallbackPermitsPerSecond);
+    }
+
+    /**
+     * Подписка на изменение запаса (новая аренда или потеря эмитента).
+     * UpstreamRateLimiter раздает разрешения ожидающим по этому сигналу.
+     */
+    public void setOnPermitsChanged(Runnable onPermitsChanged) {
+        this.onPermitsChanged = onPermitsChanged;
+    }
+
+    /**
+     * Берет одно арендованное разрешение без блокировок.
+     * 
+     * @return true, если разрешение получено
+     */
+    public boolean tryAcquire() {
+        if (System.nanoTime() - leaseExpiresAtNanos > 0) {
+            leasedPermits.set(0);
+        }
+
+        long available;
+        do {
+            available = leasedPermits.get();
+            if (available <= 0) {
+                requestLease();
+                return false;
+            }
+        } while (!leasedPermits.compareAndSet(available, available - 1));
+
+        if (available - 1 <= leaseSize / 2) {
+            requestLease();
+        }
+        return true;
+    }
+
+    /**
+     * false, если эмитент не ответил на последний запрос аренды
+     */
+    public boolean isIssuerAvailable() {
+        return issuerAvailable;
+    }
+
+    public double getFallbackPermitsPerSecond() {
+        return fallbackPermitsPerSecond;
+    }
+
+    /**
+     * Через сколько наносекунд ожидающим имеет смысл снова попробовать tryAcquire()
+     */
+    public long getRetryDelayNanos() {
+        return Math.max(nextRequestAtNanos - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    /**
+     * Принимает ответ эмитента в очереди этого экземпляра
+     */
+    @RabbitListener(queues = "#{permitReplyQueue.name}", concurrency = "1")
+    public void onLeaseGrant(PermitLeaseGrant grant, Message message, Channel channel) throws IOException {
+        try {
+            long now = System.nanoTime();
+            if (grant.getPermits() > 0) {
+                leaseExpiresAtNanos = now + TimeUnit.MILLISECONDS.toNanos(grant.getLeaseMillis());
+                leasedPermits.addAndGet(grant.getPermits());
+            } else {
+                nextRequestAtNanos = now + TimeUnit.MILLISECONDS.toNanos(grant.getRetryAfterMillis());
+            }
+            if (!issuerAvailable) {
+                log.info("🎟️ Permit issuer is back, switching to the global rate limit");
+            }
+            issuerAvailable = true;
+            requestSequence.incrementAndGet();
+            requestInFlight.set(false);
+        } finally {
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        }
+        onPermitsChanged.run();
+    }
+
+    /**
+     * Отправляет запрос аренды, если другого в полете нет и эмитент не просил подождать
+     */
+    private void requestLease() {
+        if (System.nanoTime() - nextRequestAtNanos < 0 || !requestInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        long sequence = requestSequence.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                rabbitTemplate.convertAndSend("", leaseQueueName,
+                        new PermitLeaseRequest(instanceId, replyQueueName, leaseSize));
+            } catch (AmqpException e) {
+                log.warn("Failed to request permit lease: {}", e.getMessage());
+            }
+            executor.schedule(() -> checkTimeout(sequence), issuerTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * Ответа нет за issuer-timeout: эмитент недоступен, переходим на локальный лимит
+     */
+    private void checkTimeout(long sequence) {
+        // Ответ на этот запрос уже пришел, либо проверка относится к более старому запросу
+        if (requestSequence.get() != sequence || !requestInFlight.compareAndSet(true, false)) {
+            return;
+        }
+        if (issuerAvailable) {
+            log.warn("⚠️ Permit issuer did not answer within {}, degrading to local rate {} req/sec",
+                    issuerTimeout, fallbackPermitsPerSecond);
+            issuerAvailable = false;
+        }
+        onPermitsChanged.run();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,100 @@
+package com.weather.consumer.client;
+
+import com.rabbitmq.client.Channel;
+import com.weather.consumer.dto.PermitLeaseGrant;
+import com.weather.consumer.dto.PermitLeaseRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Глобальный эмитент разрешений распределенного rate limiter.
+ * 
+ * Слушатель запущен на каждом экземпляре consumer, но очередь аренды
+ * (single active consumer) доставляет запросы только одному из них.
+ * Эмитент ведет общее для кластера token-bucket ведро со скоростью
+ * weather.api.rate-limit.permits-per-second и емкостью
+ * weather.api.rate-limit.distributed.burst и раздает разрешения пачками
+ * с ограниченным сроком аренды: суммарно по всем репликам выдается не больше
+ * permits-per-second * t + burst разрешений.
+ * 
+ * Емкость ведра должна вмещать пачку (burst >= lease-size), иначе аренда никогда
+ * не выдается целиком и каждый вызов API превращается в запрос к эмитенту;
+ * такая конфигурация отклоняется при старте.
+ * 
+ * Новый эмитент (после смены активного подписчика) начинает с полного ведра,
+ * поэтому при переключении возможен один дополнительный burst.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "weather.api.rate-limit.distributed.enabled", havingValue = "true")
+public class PermitIssuer {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final double permitsPerSecond;
+    private final int burst;
+    private final Duration leaseDuration;
+
+    // Состояние глобального ведра, защищено монитором this
+    private double storedPermits;
+    private long lastRefillNanos;
+
+    public PermitIssuer(
+            RabbitTemplate rabbitTemplate,
+            @Value("${weather.api.rate-limit.permits-per-second:1.0}") double permitsPerSecond,
+            @Value("${weather.api.rate-limit.distributed.burst:5}") int burst,
+            @Value("${weather.api.rate-limit.distributed.lease-size:5}") int leaseSize,
+            @Value("${weather.api.rate-limit.distributed.lease-duration:2s}") Duration leaseDuration) {
+        if (leaseSize > burst) {
+            throw new IllegalStateException("weather.api.rate-limit.distributed.lease-size (" + leaseSize
+                    + ") must not exceed weather.api.rate-limit.distributed.burst (" + burst + ")");
+        }
+        this.rabbitTemplate = rabbitTemplate;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.leaseDuration = leaseDuration;
+        this.storedPermits = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Обрабатывает запрос аренды: выдает сколько есть (возможно 0) и подсказывает,
+     * когда ведро снова наполнится.
+     */
+    @RabbitListener(queues = "#{permitLeaseQueue.name}", concurrency = "1")
+    public void onLeaseRequest(PermitLeaseRequest request, Message message, Channel channel) throws IOException {
+        try {
+            PermitLeaseGrant grant = issue(request.getPermits());
+            rabbitTemplate.convertAndSend("", request.getReplyTo(), grant);
+            log.debug("🎟️ Leased {}/{} permits to {}", grant.getPermits(), request.getPermits(), request.getInstanceId());
+        } catch (AmqpException e) {
+            // Клиент не получит ответ и повторит запрос по таймауту
+            log.warn("Failed to send permit lease to {}: {}", request.getInstanceId(), e.getMessage());
+        } finally {
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        }
+    }
+
+    private synchronized PermitLeaseGrant issue(int requested) {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        storedPermits = Math.min(burst, storedPermits + elapsedSeconds * permitsPerSecond);
+        lastRefillNanos = now;
+
+        int granted = (int) Math.min(Math.max(requested, 1), Math.floor(storedPermits));
+        storedPermits -= granted;
+        long retryAfterMillis = granted > 0
+                ? 0
+                : (long) Math.ceil((1.0 - storedPermits) / permitsPerSecond * 1000);
+        return new PermitLeaseGrant(granted, leaseDuration.toMillis(), retryAfterMillis);
+    }
+}
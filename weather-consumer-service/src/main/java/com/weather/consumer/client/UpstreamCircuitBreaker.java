@@ -0,0 +1,222 @@
+package com.weather.consumer.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Circuit breaker и bulkhead вокруг запросов к Weather API.
+ * 
+ * Circuit breaker (weather.api.circuit-breaker.*):
+ * - CLOSED: запросы идут; результаты последних sliding-window-size запросов
+ *   хранятся в кольцевом буфере. Если доля ошибок не меньше failure-rate-threshold
+ *   (при не менее minimum-calls запросах в окне), цепь размыкается
+ * - OPEN: запросы сразу отклоняются UpstreamUnavailableException, не занимая
+ *   потоки, соединения и разрешения rate limiter; через open-duration - HALF_OPEN
+ * - HALF_OPEN: пропускается half-open-calls пробных запросов; все успешны - CLOSED,
+ *   любая ошибка - снова OPEN
+ * 
+ * Ошибкой считаются временные сбои (429, 5xx, таймауты, ошибки соединения);
+ * 400/404 говорят о работающем API и считаются успехом.
+ * 
+ * Bulkhead: не более bulkhead.max-concurrent-calls одновременных запросов,
+ * лишние сразу отклоняются и на состояние цепи не влияют.
+ * 
+ * Метрики: weather.upstream.circuit.state (0 - CLOSED, 1 - HALF_OPEN, 2 - OPEN),
+ * weather.upstream.bulkhead.available.
+ */
+@Slf4j
+@Component
+public class UpstreamCircuitBreaker implements MeterBinder {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final boolean enabled;
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final int halfOpenCalls;
+    private final Semaphore bulkhead;
+
+    // Состояние цепи, защищено монитором this
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+    private volatile State state = State.CLOSED;
+    private long openedAtNanos;
+    private int halfOpenStarted;
+    private int halfOpenSucceeded;
+
+    // Вызывается, когда освобождается место в bulkhead (UpstreamRateLimiter ждет его перед выдачей разрешения)
+    private volatile Runnable onCapacityChanged = () -> { };
+
+    public UpstreamCircuitBreaker(
+            @Value("${weather.api.circuit-breaker.enabled:true}") boolean enabled,
+            @Value("${weather.api.circuit-breaker.failure-rate-threshold:50}") int failureRateThreshold,
+            @Value("${weather.api.circuit-breaker.sliding-window-size:20}") int slidingWindowSize,
+            @Value("${weather.api.circuit-breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${weather.api.circuit-breaker.open-duration:30s}") Duration openDuration,
+            @Value("${weather.api.circuit-breaker.half-open-calls:3}") int halfOpenCalls,
+            @Value("${weather.api.bulkhead.max-concurrent-calls:10}") int maxConcurrentCalls) {
+        this.enabled = enabled;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = Math.min(minimumCalls, slidingWindowSize);
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+        this.window = new boolean[slidingWindowSize];
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        log.info("UpstreamCircuitBreaker initialized: enabled={}, failure rate {}% of {} calls, open {}, bulkhead {}",
+                enabled, failureRateThreshold, slidingWindowSize, openDuration, maxConcurrentCalls);
+    }
+
+    /**
+     * Можно ли сейчас рассчитывать на запрос к API (без резервирования места).
+     * Используется, чтобы не ждать разрешения rate limiter при разомкнутой цепи.
+     */
+    public boolean isCallPermitted() {
+        if (!enabled || state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            return state == State.HALF_OPEN ? halfOpenStarted < halfOpenCalls : openIntervalElapsed();
+        }
+    }
+
+    /**
+     * Есть ли свободное место в bulkhead с учетом pending уже выданных, но еще не начатых запросов.
+     * UpstreamRateLimiter не выдает разрешение, пока места нет, чтобы отказ bulkhead
+     * не расходовал бюджет rate limiter.
+     */
+    public boolean hasBulkheadCapacity(int pending) {
+        return !enabled || bulkhead.availablePermits() > pending;
+    }
+
+    public void setOnCapacityChanged(Runnable onCapacityChanged) {
+        this.onCapacityChanged = onCapacityChanged;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Занимает место для запроса к API. На каждый успешный acquire() должен быть вызван release().
+     * 
+     * @throws UpstreamUnavailableException цепь разомкнута или bulkhead заполнен
+     */
+    public void acquire() throws UpstreamUnavailableException {
+        if (!enabled) {
+            return;
+        }
+        if (!bulkhead.tryAcquire()) {
+            throw new UpstreamUnavailableException("Weather API bulkhead is full");
+        }
+        synchronized (this) {
+            if (state == State.OPEN && openIntervalElapsed()) {
+                transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenStarted >= halfOpenCalls)) {
+                bulkhead.release();
+                throw new UpstreamUnavailableException("Weather API circuit breaker is open");
+            }
+            if (state == State.HALF_OPEN) {
+                halfOpenStarted++;
+            }
+        }
+    }
+
+    /**
+     * Освобождает место и учитывает результат запроса.
+     * 
+     * @param error ошибка запроса или null
+     */
+    public void release(Throwable error) {
+        if (!enabled) {
+            return;
+        }
+        bulkhead.release();
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        boolean failure = cause != null
+                && !(cause instanceof UpstreamHttpException http && http.isPermanent());
+        onResult(failure);
+        onCapacityChanged.run();
+    }
+
+    private synchronized void onResult(boolean failure) {
+        switch (state) {
+            case HALF_OPEN -> {
+                if (failure) {
+                    transitionTo(State.OPEN);
+                } else if (++halfOpenSucceeded >= halfOpenCalls) {
+                    transitionTo(State.CLOSED);
+                }
+            }
+            case CLOSED -> {
+                if (windowCount == window.length) {
+                    if (window[windowPosition]) {
+                        windowFailures--;
+                    }
+                } else {
+                    windowCount++;
+                }
+                window[windowPosition] = failure;
+                if (failure) {
+                    windowFailures++;
+                }
+                windowPosition = (windowPosition + 1) % window.length;
+
+                if (windowCount >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                    transitionTo(State.OPEN);
+                }
+            }
+            case OPEN -> {
+                // Ответы на запросы, начатые до размыкания цепи
+            }
+        }
+    }
+
+    private boolean openIntervalElapsed() {
+        return System.nanoTime() - openedAtNanos >= openDurationNanos;
+    }
+
+    private void transitionTo(State newState) {
+        State previous = state;
+        state = newState;
+        switch (newState) {
+            case OPEN -> {
+                openedAtNanos = System.nanoTime();
+                log.warn("🔴 Weather API circuit breaker OPEN ({} -> OPEN, {}/{} failures in window)",
+                        previous, windowFailures, windowCount);
+            }
+            case HALF_OPEN -> {
+                halfOpenStarted = 0;
+                halfOpenSucceeded = 0;
+                log.info("🟡 Weather API circuit breaker HALF_OPEN: probing with {} calls", halfOpenCalls);
+            }
+            case CLOSED -> {
+                windowPosition = 0;
+                windowCount = 0;
+                windowFailures = 0;
+                log.info("🟢 Weather API circuit breaker CLOSED");
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("weather.upstream.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("Upstream circuit breaker state: 0 - CLOSED, 1 - HALF_OPEN, 2 - OPEN")
+                .register(registry);
+        Gauge.builder("weather.upstream.bulkhead.available", bulkhead, Semaphore::availablePermits)
+                .description("Free upstream bulkhead slots")
+                .register(registry);
+    }
+}
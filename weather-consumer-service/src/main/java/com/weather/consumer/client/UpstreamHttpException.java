@@ -0,0 +1,73 @@
+package com.weather.consumer.client;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Ошибка HTTP ответа OpenWeatherMap API с кодом статуса.
+ * 
+ * Постоянные ошибки (400 - некорректный запрос, 404 - город не найден) не исправятся
+ * повторным запросом и кэшируются в негативном кэше "weather-negative".
+ * Остальные (429, 5xx и т.д.) считаются временными.
+ */
+@Getter
+public class UpstreamHttpException extends Exception {
+
+    private final int statusCode;
+
+    /**
+     * Значение заголовка Retry-After (для 429/503), либо null
+     */
+    private final Duration retryAfter;
+
+    public UpstreamHttpException(int statusCode, String message) {
+        this(statusCode, message, null);
+    }
+
+    public UpstreamHttpException(int statusCode, String message, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Ошибка относится к самому городу и повторится при любом повторном запросе.
+     */
+    public boolean isPermanent() {
+        return statusCode == 400 || statusCode == 404;
+    }
+
+    /**
+     * Внешний API просит снизить нагрузку (429 Too Many Requests, 503 Service Unavailable).
+     */
+    public boolean isThrottled() {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * Разбирает заголовок Retry-After: число секунд или HTTP-дата.
+     * 
+     * @param header значение заголовка (может быть null)
+     * @return задержка или null, если заголовка нет или он некорректен
+     */
+    public static Duration parseRetryAfter(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(Long.parseLong(header.trim()), 0));
+        } catch (NumberFormatException e) {
+            try {
+                Duration delay = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
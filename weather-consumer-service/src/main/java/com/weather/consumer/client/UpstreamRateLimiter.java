@@ -0,0 +1,252 @@
+package com.weather.consumer.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Неблокирующий token-bucket планировщик запросов к внешнему Weather API.
+ * 
+ * В отличие от RateLimiter.acquire() / Thread.sleep(), вызывающий поток не засыпает:
+ * acquire() сразу возвращает CompletableFuture, который завершится, когда
+ * в "ведре" появится разрешение. Ожидающие запросы обслуживаются по приоритету
+ * (acquire(priority)), внутри одного приоритета - в порядке FIFO,
+ * одним служебным потоком-таймером.
+ * 
+ * Параметры:
+ * - weather.api.rate-limit.permits-per-second: скорость пополнения ведра
+ * - weather.api.rate-limit.burst: максимальное число накопленных разрешений
+ * 
+ * В распределенном режиме (weather.api.rate-limit.distributed.enabled) разрешения
+ * берутся из DistributedPermitPool, общего лимита всех реплик; локальное ведро
+ * со скоростью fallback-permits-per-second используется, только пока эмитент недоступен.
+ * 
+ * В адаптивном режиме (weather.api.rate-limit.adaptive.enabled) скорость локального ведра
+ * и число одновременных запросов задает AdaptiveUpstreamLimit, а Retry-After
+ * приостанавливает выдачу разрешений.
+ * 
+ * Разрешение выдается только при свободном месте в bulkhead UpstreamCircuitBreaker,
+ * а при разомкнутой цепи ожидающие сразу получают UpstreamUnavailableException:
+ * отклоненный запрос не расходует ни локальный, ни распределенный бюджет.
+ */
+@Slf4j
+@Component
+public class UpstreamRateLimiter {
+
+    private final double permitsPerSecond;
+    private final int burst;
+
+    // null, если распределенный режим выключен
+    private final DistributedPermitPool permitPool;
+
+    private final AdaptiveUpstreamLimit adaptiveLimit;
+
+    private final UpstreamCircuitBreaker circuitBreaker;
+
+    /**
+     * Ожидающий разрешения запрос: больший priority раньше, при равенстве - меньший sequence
+     */
+    private record Waiter(int priority, long sequence, CompletableFuture<Void> permit) implements Comparable<Waiter> {
+        @Override
+        public int compareTo(Waiter other) {
+            return priority != other.priority
+                    ? Integer.compare(other.priority, priority)
+                    : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Queue<Waiter> waiters = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upstream-rate-limiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Состояние ведра, защищено монитором this
+    private double storedPermits;
+    private long lastRefillNanos;
+    private boolean drainScheduled;
+
+    public UpstreamRateLimiter(
+            @Value("${weather.api.rate-limit.permits-per-second:1.0}") double permitsPerSecond,
+            @Value("${weather.api.rate-limit.burst:1}") int burst,
+            ObjectProvider<DistributedPermitPool> permitPoolProvider,
+            AdaptiveUpstreamLimit adaptiveLimit,
+            UpstreamCircuitBreaker circuitBreaker) {
+        this.permitPool = permitPoolProvider.getIfAvailable();
+        this.adaptiveLimit = adaptiveLimit;
+        this.circuitBreaker = circuitBreaker;
+        this.permitsPerSecond = permitPool != null ? permitPool.getFallbackPermitsPerSecond() : permitsPerSecond;
+        this.burst = burst;
+        this.storedPermits = burst;
+        this.lastRefillNanos = System.nanoTime();
+        if (adaptiveLimit.isEnabled()) {
+            adaptiveLimit.setOnLimitChanged(this::drain);
+        }
+        circuitBreaker.setOnCapacityChanged(this::drain);
+        if (permitPool != null) {
+            permitPool.setOnPermitsChanged(this::drain);
+            log.info("UpstreamRateLimiter initialized: distributed, global {} req/sec, local fallback {} req/sec",
+                    permitsPerSecond, this.permitsPerSecond);
+        } else {
+            log.info("UpstreamRateLimiter initialized: {} req/sec, burst {}", permitsPerSecond, burst);
+        }
+    }
+
+    /**
+     * Запрашивает разрешение на один вызов внешнего API с наименьшим приоритетом
+     * (фоновое обновление кэша).
+     * 
+     * @return future, который завершается, когда вызов разрешен
+     */
+    public CompletableFuture<Void> acquire() {
+        return acquire(0);
+    }
+
+    /**
+     * Запрашивает разрешение на один вызов внешнего API.
+     * 
+     * @param priority приоритет запроса (WeatherMessage.priority): больший обслуживается раньше
+     * @return future, который завершается, когда вызов разрешен
+     */
+    public CompletableFuture<Void> acquire(int priority) {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        waiters.add(new Waiter(priority, sequence.getAndIncrement(), permit));
+        drain();
+        return permit;
+    }
+
+    /**
+     * Количество запросов, ожидающих разрешения.
+     */
+    public int getWaitingCount() {
+        return waiters.size();
+    }
+
+    /**
+     * Выдает накопленные разрешения ожидающим и планирует следующий проход,
+     * если очередь не опустела. Future завершаются вне монитора, чтобы
+     * цепочки вызывающей стороны не выполнялись под блокировкой.
+     */
+    private void drain() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        List<CompletableFuture<Void>> rejected = new ArrayList<>();
+
+        synchronized (this) {
+            if (!circuitBreaker.isCallPermitted()) {
+                // Цепь разомкнута: запрос все равно будет отклонен, разрешение не тратим
+                Waiter waiter;
+                while ((waiter = waiters.poll()) != null) {
+                    rejected.add(waiter.permit());
+                }
+            }
+            refill();
+            while (!waiters.isEmpty() && hasAdaptiveHeadroom(granted.size())
+                    && circuitBreaker.hasBulkheadCapacity(granted.size()) && tryTakePermit()) {
+                granted.add(waiters.poll().permit());
+            }
+
+            if (!waiters.isEmpty() && !drainScheduled) {
+                drainScheduled = true;
+                timer.schedule(this::scheduledDrain, Math.max(nextPermitDelayNanos(), 0), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        granted.forEach(waiter -> waiter.complete(null));
+        if (!rejected.isEmpty()) {
+            UpstreamUnavailableException open = new UpstreamUnavailableException("Weather API circuit breaker is open");
+            rejected.forEach(waiter -> waiter.completeExceptionally(open));
+        }
+    }
+
+    /**
+     * Разрешение из общего пула, а при недоступном эмитенте (или без распределенного режима) - из локального ведра
+     */
+    private boolean tryTakePermit() {
+        if (permitPool != null) {
+            if (permitPool.tryAcquire()) {
+                return true;
+            }
+            if (permitPool.isIssuerAvailable()) {
+                return false;
+            }
+        }
+        if (storedPermits >= 1.0) {
+            storedPermits -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Адаптивный лимит: нет паузы по Retry-After и есть место с учетом уже выданных в этом проходе
+     */
+    private boolean hasAdaptiveHeadroom(int grantedInThisPass) {
+        return !adaptiveLimit.isEnabled()
+                || (adaptiveLimit.getPauseRemainingNanos() == 0 && adaptiveLimit.hasConcurrencyHeadroom(grantedInThisPass));
+    }
+
+    private long nextPermitDelayNanos() {
+        if (!circuitBreaker.hasBulkheadCapacity(0)) {
+            // Освобождение места в bulkhead само вызовет drain(); таймер - страховка
+            return TimeUnit.MILLISECONDS.toNanos(100);
+        }
+        if (adaptiveLimit.isEnabled()) {
+            long pause = adaptiveLimit.getPauseRemainingNanos();
+            if (pause > 0) {
+                return pause;
+            }
+            if (!adaptiveLimit.hasConcurrencyHeadroom(0)) {
+                // Завершение запроса само вызовет drain(); таймер - страховка
+                return TimeUnit.MILLISECONDS.toNanos(100);
+            }
+        }
+        long localDelay = (long) ((1.0 - storedPermits) / currentRate() * TimeUnit.SECONDS.toNanos(1));
+        if (permitPool == null) {
+            return localDelay;
+        }
+        // Новая аренда сама вызовет drain(); таймер - страховка на случай потерянного ответа
+        return permitPool.isIssuerAvailable() ? permitPool.getRetryDelayNanos() : localDelay;
+    }
+
+    private void scheduledDrain() {
+        synchronized (this) {
+            drainScheduled = false;
+        }
+        drain();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        storedPermits = Math.min(burst, storedPermits + elapsedSeconds * currentRate());
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Скорость локального ведра. В распределенном режиме глобальную скорость
+     * задает эмитент, адаптивный лимит управляет только параллелизмом и паузами.
+     */
+    private double currentRate() {
+        return adaptiveLimit.isEnabled() && permitPool == null ? adaptiveLimit.getPermitsPerSecond() : permitsPerSecond;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
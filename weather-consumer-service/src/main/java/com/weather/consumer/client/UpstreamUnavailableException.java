@@ -0,0 +1,14 @@
+package com.weather.consumer.client;
+
+/**
+ * Запрос к Weather API не выполнялся: circuit breaker разомкнут
+ * или все места bulkhead заняты (UpstreamCircuitBreaker).
+ * 
+ * Временная ошибка: в негативный кэш не попадает.
+ */
+public class UpstreamUnavailableException extends Exception {
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -1,31 +1,106 @@
 package com.weather.consumer.client;
 
-import com.google.common.util.concurrent.RateLimiter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.weather.consumer.cache.MappedWeatherStore;
+import com.weather.consumer.cache.StoredWeather;
+import com.weather.consumer.dto.OpenWeatherMapGroupResponse;
 import com.weather.consumer.dto.OpenWeatherMapResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
 /**
  * Клиент для взаимодействия с OpenWeatherMap API.
  * Выполняет HTTP запросы для получения данных о погоде.
  * 
  * Возможности:
  * - Кэширование результатов (5 минут TTL)
- * - Rate limiting (1 запрос/секунду)
+ * - Быстрая проверка кэша без обращения к API (getCachedWeather)
+ * - Постоянный memory-mapped кэш второго уровня (MappedWeatherStore), переживающий рестарт
+ * - Негативный кэш постоянных ошибок, например "city not found" (getKnownFailure)
+ * - Асинхронные запросы без блокировки потоков (getWeatherForCityAsync)
+ * - Пакетные запросы нескольких городов по id (getWeatherForCitiesAsync)
  * - Автоматическая обработка ошибок
+ * 
+ * Rate limiting выполняет вызывающая сторона через UpstreamRateLimiter,
+ * чтобы попадания в кэш не ждали разрешения.
  */
 @Slf4j
 @Component
 public class WeatherApiClient {
 
     private final RestTemplate restTemplate;
-    
-    // Rate Limiter: максимум 1 запрос в секунду
-    private final RateLimiter rateLimiter = RateLimiter.create(1.0);
+
+    private final CloseableHttpAsyncClient asyncHttpClient;
+
+    private final ObjectMapper objectMapper;
+
+    private final Cache weatherCache;
+
+    private final Cache negativeCache;
+
+    private final MappedWeatherStore l2Store;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final AdaptiveUpstreamLimit adaptiveLimit;
+
+    private final UpstreamCircuitBreaker circuitBreaker;
+
+    /**
+     * Поток для WeatherFetchedEvent из асинхронного клиента: слушатели (L2, синхронизация
+     * кэша через RabbitMQ) не выполняются в потоке I/O reactor HTTP клиента
+     */
+    private final ExecutorService upstreamFetchExecutor;
+
+    /**
+     * Асинхронные запросы, которые сейчас выполняются.
+     * Одновременные промахи по одному городу объединяются в один HTTP запрос.
+     */
+    private final Map<String, CompletableFuture<OpenWeatherMapResponse>> inFlightRequests =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Известные id городов OpenWeatherMap (ключ кэша -> id), запоминаются из ответов API.
+     */
+    private final Map<String, Long> cityIds = new ConcurrentHashMap<>();
 
     @Value("${weather.api.url}")
     private String apiUrl;
@@ -33,13 +108,192 @@ public class WeatherApiClient {
     @Value("${weather.api.key}")
     private String apiKey;
 
+    @Value("${weather.api.group.url}")
+    private String groupUrl;
+
+    @Value("${weather.api.group.max-size:20}")
+    private int groupMaxSize;
+
+    @Value("${weather.api.group.enabled:true}")
+    private boolean groupEnabled;
+
+    @Value("${weather.api.http.gzip:true}")
+    private boolean gzip;
+
+    @Value("${weather.cache.refresh-after:4m}")
+    private Duration refreshAfter;
+
+    @Value("${weather.cache.max-staleness:10m}")
+    private Duration maxStaleness;
+
     /**
      * Конструктор для внедрения зависимостей.
-     * RestTemplate внедряется через Spring IoC.
+     * HTTP клиенты, ObjectMapper, CacheManager, L2 хранилище, адаптивный лимит, circuit breaker
+     * и пул upstreamFetchExecutor внедряются через Spring IoC.
      */
-    public WeatherApiClient(RestTemplate restTemplate) {
+    public WeatherApiClient(RestTemplate restTemplate, CloseableHttpAsyncClient asyncHttpClient,
+                            ObjectMapper objectMapper, CacheManager cacheManager,
+                            MappedWeatherStore l2Store, ApplicationEventPublisher eventPublisher,
+                            AdaptiveUpstreamLimit adaptiveLimit, UpstreamCircuitBreaker circuitBreaker,
+                            ExecutorService upstreamFetchExecutor) {
         this.restTemplate = restTemplate;
-        log.info("WeatherApiClient initialized with rate limit: 1 req/sec");
+        this.asyncHttpClient = asyncHttpClient;
+        this.objectMapper = objectMapper;
+        this.weatherCache = cacheManager.getCache("weather");
+        this.negativeCache = cacheManager.getCache("weather-negative");
+        this.l2Store = l2Store;
+        this.eventPublisher = eventPublisher;
+        this.adaptiveLimit = adaptiveLimit;
+        this.circuitBreaker = circuitBreaker;
+        this.upstreamFetchExecutor = upstreamFetchExecutor;
+        log.info("WeatherApiClient initialized");
+    }
+
+    /**
+     * Возвращает данные о погоде из кэша "weather", не обращаясь к API.
+     * 
+     * @param city Название города
+     * @return закэшированный (возможно, обновляемый в фоне) ответ или null при промахе
+     */
+    public OpenWeatherMapResponse getCachedWeather(String city) {
+        String key = cacheKey(city);
+        // Через native кэш: Spring Cache.get() у LoadingCache сам загрузил бы значение.
+        // getIfPresent() возвращает и устаревшую запись, запуская ее фоновое обновление
+        OpenWeatherMapResponse cached = (OpenWeatherMapResponse) nativeWeatherCache().getIfPresent(key);
+        if (cached != null || !l2Store.isEnabled()) {
+            return cached;
+        }
+
+        // Промах L1: проверяем постоянный L2 и при попадании возвращаем запись в L1
+        StoredWeather stored = l2Store.get(key);
+        if (stored == null || !promoteFromL2(key, stored)) {
+            return null;
+        }
+        log.debug("💾 L2 HIT for city: {}", city);
+        return stored.response();
+    }
+
+    /**
+     * Кладет запись L2 в L1 с сохранением ее возраста: запись живет в L1 только
+     * остаток weather.cache.max-staleness, а запись старше weather.cache.refresh-after
+     * сразу обновляется в фоне. Обычный put() считал бы ее только что полученной
+     * и продлевал устаревшие данные при каждом рестарте.
+     * 
+     * @return false, если запись уже старше max-staleness
+     */
+    private boolean promoteFromL2(String key, StoredWeather stored) {
+        Duration age = stored.age();
+        Duration remaining = maxStaleness.minus(age);
+        if (remaining.isNegative() || remaining.isZero()) {
+            return false;
+        }
+        weatherExpiration().put(key, stored.response(), remaining);
+        rememberCityId(key, stored.response());
+        if (age.compareTo(refreshAfter) >= 0) {
+            refreshInBackground(key);
+        }
+        return true;
+    }
+
+    /**
+     * Можно ли сейчас обращаться к Weather API (circuit breaker не разомкнут).
+     */
+    public boolean isUpstreamAvailable() {
+        return circuitBreaker.isCallPermitted();
+    }
+
+    /**
+     * Последние известные данные о городе, даже устаревшие (из L2, если он включен).
+     * Используются вместо ошибки, пока Weather API недоступен.
+     * 
+     * @param city Название города
+     * @return устаревшие данные или null
+     */
+    public OpenWeatherMapResponse getStaleWeather(String city) {
+        return l2Store.getStale(cacheKey(city));
+    }
+
+    /**
+     * Накопленная статистика кэша "weather" (попадания, промахи, загрузки).
+     */
+    public CacheStats getCacheStats() {
+        return nativeWeatherCache().stats();
+    }
+
+    /**
+     * Возраст записи о городе в кэше "weather" (для записей из L2 - с момента получения от API).
+     * 
+     * @param city Название города
+     * @return возраст или null, если записи нет
+     */
+    public Duration getCacheAge(String city) {
+        return weatherExpiration().getExpiresAfter(cacheKey(city))
+                .map(maxStaleness::minus)
+                .orElse(null);
+    }
+
+    /**
+     * Обновляет (или загружает) запись о городе в фоне через загрузчик кэша:
+     * с разрешением UpstreamRateLimiter наименьшего приоритета.
+     * 
+     * @param city Название города
+     */
+    public void refreshInBackground(String city) {
+        ((LoadingCache<Object, Object>) nativeWeatherCache()).refresh(cacheKey(city));
+    }
+
+    /**
+     * Прогрев L1 кэша из постоянного L2 при старте: перезапущенный consumer
+     * сразу отвечает из кэша, не заполняя его заново через rate limiter.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpFromL2() {
+        if (!l2Store.isEnabled()) {
+            return;
+        }
+        AtomicInteger loaded = new AtomicInteger();
+        l2Store.forEachLive((key, stored) -> {
+            if (promoteFromL2(key, stored)) {
+                loaded.incrementAndGet();
+            }
+        });
+        log.info("💾 Warmed up weather cache with {} cities from L2 store", loaded.get());
+    }
+
+    /**
+     * Кладет в локальный кэш данные, полученные другим экземпляром consumer
+     * (weather.cache.sync.enabled). Событие WeatherFetchedEvent не публикуется,
+     * чтобы данные не рассылались повторно.
+     * 
+     * @param key нормализованный ключ города
+     * @param response данные о погоде
+     */
+    public void acceptPeerWeather(String key, OpenWeatherMapResponse response) {
+        nativeWeatherCache().put(key, response);
+        rememberCityId(key, response);
+    }
+
+    @SuppressWarnings("unchecked")
+    private com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeWeatherCache() {
+        return (com.github.benmanes.caffeine.cache.Cache<Object, Object>) weatherCache.getNativeCache();
+    }
+
+    /**
+     * Срок жизни отдельных записей кэша "weather" (CacheConfig задает его через expireAfter)
+     */
+    private Policy.VarExpiration<Object, Object> weatherExpiration() {
+        return nativeWeatherCache().policy().expireVariably().orElseThrow();
+    }
+
+    /**
+     * Нормализованный ключ города: " Moscow" и "moscow" - один и тот же город
+     * для кэша и для объединения одинаковых запросов.
+     * 
+     * @param city Название города
+     * @return ключ кэша
+     */
+    public static String cacheKey(String city) {
+        return city == null ? "" : city.trim().toLowerCase(Locale.ROOT);
     }
 
     /**
@@ -47,40 +301,44 @@ public class WeatherApiClient {
      * 
      * Кэширование:
      * - value = "weather": имя кэша (должно совпадать с cache-names в yml)
-     * - key = "#city": ключ кэша - название города
+     * - key = cacheKey(#city): ключ кэша - нормализованное название города
      * - unless = "#result == null": не кэшировать null результаты
      * 
      * Поведение:
      * 1. Проверяет кэш - если есть данные, возвращает их (без вызова API)
-     * 2. Если данных нет - применяет rate limiting
-     * 3. Делает HTTP запрос к OpenWeatherMap API
-     * 4. Кэширует результат на 5 минут
+     * 2. Если данных нет - делает HTTP запрос к OpenWeatherMap API
+     * 3. Кэширует результат на 5 минут
+     * 
+     * Разрешение UpstreamRateLimiter должно быть получено до вызова.
      * 
      * @param city Название города
      * @return Данные о погоде от OpenWeatherMap API
      * @throws Exception если произошла ошибка при запросе
      */
-    @Cacheable(value = "weather", key = "#city", sync = true)
+    @Cacheable(value = "weather", key = "T(com.weather.consumer.client.WeatherApiClient).cacheKey(#city)", sync = true)
     public OpenWeatherMapResponse getWeatherForCity(String city) throws Exception {
-        // Rate limiting: ждём разрешения перед запросом
-        rateLimiter.acquire();
-        
         log.info("🌐 CACHE MISS - Fetching weather data from API for city: {}", city);
 
         try {
-            // Построение URL с параметрами
-            String url = UriComponentsBuilder.fromHttpUrl(apiUrl)
-                    .queryParam("q", city)
-                    .queryParam("appid", apiKey)
-                    .queryParam("units", "metric") // Температура в Цельсиях
-                    .toUriString();
+            String url = buildUrl(city);
 
             log.debug("API URL: {}", url.replace(apiKey, "***")); // Скрываем API ключ
 
             // Выполнение HTTP GET запроса
-            OpenWeatherMapResponse response = restTemplate.getForObject(url, OpenWeatherMapResponse.class);
+            OpenWeatherMapResponse response;
+            long started = beginUpstreamCall();
+            try {
+                response = restTemplate.getForObject(url, OpenWeatherMapResponse.class);
+                endUpstreamCall(started, null);
+            } catch (RuntimeException e) {
+                endUpstreamCall(started, toUpstreamException(e));
+                throw e;
+            }
 
             if (response != null) {
+                rememberCityId(cacheKey(city), response);
+                eventPublisher.publishEvent(
+                        new WeatherFetchedEvent(cacheKey(city), response, System.currentTimeMillis()));
                 log.info("✅ Successfully fetched and CACHED weather for city: {}", city);
                 log.debug("Temperature: {}°C, Humidity: {}%, Wind: {} m/s",
                         response.getMain().getTemp(),
@@ -92,9 +350,297 @@ public class WeatherApiClient {
 
             return response;
 
+        } catch (HttpStatusCodeException e) {
+            throw toFailure(city, toUpstreamException(e));
         } catch (Exception e) {
-            log.error("❌ Error fetching weather data for city {}: {}", city, e.getMessage());
-            throw new Exception("Failed to fetch weather data for " + city + ": " + e.getMessage());
+            throw toFailure(city, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Асинхронно получает данные о погоде для указанного города.
+     * 
+     * Поток вызывающей стороны не блокируется: future завершается в потоке
+     * асинхронного HTTP клиента. Успешный результат кладется в кэш "weather",
+     * поэтому следующие запросы по городу обслуживаются getCachedWeather().
+     * Разрешение UpstreamRateLimiter должно быть получено до вызова.
+     * 
+     * @param city Название города
+     * @return future с данными о погоде
+     */
+    public CompletableFuture<OpenWeatherMapResponse> getWeatherForCityAsync(String city) {
+        String key = cacheKey(city);
+        CompletableFuture<OpenWeatherMapResponse> created = new CompletableFuture<>();
+        CompletableFuture<OpenWeatherMapResponse> existing = inFlightRequests.putIfAbsent(key, created);
+        if (existing != null) {
+            log.debug("Joining in-flight request for city: {}", city);
+            return existing;
+        }
+
+        log.info("🌐 CACHE MISS - Fetching weather data asynchronously for city: {}", city);
+
+        String url = buildUrl(city);
+        log.debug("API URL: {}", url.replace(apiKey, "***"));
+
+        getJsonAsync(url, OpenWeatherMapResponse.class).whenComplete((response, error) -> {
+            inFlightRequests.remove(key, created);
+            if (error == null) {
+                onFetched(key, response);
+                log.info("✅ Successfully fetched and CACHED weather for city: {}", city);
+                created.complete(response);
+            } else {
+                created.completeExceptionally(toFailure(city, error));
+            }
+        });
+
+        return created;
+    }
+
+    /**
+     * Проверяет негативный кэш: город недавно завершился постоянной ошибкой
+     * (например, 404 "city not found"), и повторять запрос к API нет смысла.
+     * 
+     * @param city Название города
+     * @return закэшированная ошибка или null
+     */
+    public UpstreamHttpException getKnownFailure(String city) {
+        return negativeCache.get(cacheKey(city), UpstreamHttpException.class);
+    }
+
+    /**
+     * Идентификатор города OpenWeatherMap, если город уже запрашивался.
+     * Нужен для пакетного запроса getWeatherForCitiesAsync().
+     * 
+     * @param city Название города
+     * @return id города или null, если он еще неизвестен
+     */
+    public Long getCityId(String city) {
+        return cityIds.get(cacheKey(city));
+    }
+
+    /**
+     * Максимальное количество городов в одном пакетном запросе.
+     */
+    public int getGroupMaxSize() {
+        return groupEnabled ? groupMaxSize : 1;
+    }
+
+    /**
+     * Асинхронно получает погоду для нескольких городов одним запросом к
+     * group endpoint OpenWeatherMap (/data/2.5/group?id=...).
+     * 
+     * Все города должны иметь известный id (getCityId) и их не больше getGroupMaxSize().
+     * Каждый полученный город кладется в кэш "weather" отдельной записью.
+     * Один пакетный запрос расходует одно разрешение UpstreamRateLimiter.
+     * 
+     * @param cities Названия городов с известными id
+     * @return future с картой "ключ кэша -> данные о погоде"; города, которых
+     *         нет в ответе, в карте отсутствуют. Ошибка запроса передается без обертки
+     *         (UpstreamHttpException, UpstreamUnavailableException), чтобы вызывающий
+     *         мог отличить временную ошибку от постоянной
+     */
+    public CompletableFuture<Map<String, OpenWeatherMapResponse>> getWeatherForCitiesAsync(Collection<String> cities) {
+        Map<Long, String> keysById = new LinkedHashMap<>();
+        for (String city : cities) {
+            Long id = getCityId(city);
+            if (id == null) {
+                throw new IllegalArgumentException("Unknown city id for " + city);
+            }
+            keysById.put(id, cacheKey(city));
+        }
+        if (keysById.size() > groupMaxSize) {
+            throw new IllegalArgumentException("Group request supports at most " + groupMaxSize + " cities");
+        }
+
+        log.info("🌐 CACHE MISS - Fetching weather data for {} cities in one group request", keysById.size());
+
+        String url = UriComponentsBuilder.fromHttpUrl(groupUrl)
+                .queryParam("id", keysById.keySet().stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .queryParam("appid", apiKey)
+                .queryParam("units", "metric")
+                .toUriString();
+        log.debug("API URL: {}", url.replace(apiKey, "***"));
+
+        return getJsonAsync(url, OpenWeatherMapGroupResponse.class).handle((group, error) -> {
+            if (error != null) {
+                log.error("❌ Error fetching group weather data: {}", error.getMessage());
+                throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+            }
+            Map<String, OpenWeatherMapResponse> result = new HashMap<>();
+            if (group.getList() != null) {
+                for (OpenWeatherMapResponse response : group.getList()) {
+                    String key = keysById.get(response.getId());
+                    if (key != null) {
+                        onFetched(key, response);
+                        result.put(key, response);
+                    }
+                }
+            }
+            log.info("✅ Group request returned {}/{} cities", result.size(), keysById.size());
+            return result;
+        });
+    }
+
+    /**
+     * Асинхронный GET запрос с разбором JSON ответа.
+     */
+    private <T> CompletableFuture<T> getJsonAsync(String url, Class<T> type) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        SimpleRequestBuilder requestBuilder = SimpleRequestBuilder.get(url);
+        if (gzip) {
+            requestBuilder.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+        SimpleHttpRequest request = requestBuilder.build();
+        long started;
+        try {
+            started = beginUpstreamCall();
+        } catch (UpstreamUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        asyncHttpClient.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse httpResponse) {
+                if (httpResponse.getCode() >= 300) {
+                    Header retryAfter = httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                    fail(new UpstreamHttpException(httpResponse.getCode(),
+                            "HTTP " + httpResponse.getCode() + " " + httpResponse.getBodyText(),
+                            UpstreamHttpException.parseRetryAfter(retryAfter == null ? null : retryAfter.getValue())));
+                    return;
+                }
+                endUpstreamCall(started, null);
+                try {
+                    T body = objectMapper.readValue(readBody(httpResponse), type);
+                    if (body == null) {
+                        throw new Exception("Empty response body");
+                    }
+                    future.complete(body);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                fail(e);
+            }
+
+            @Override
+            public void cancelled() {
+                fail(new Exception("Request cancelled"));
+            }
+
+            private void fail(Exception e) {
+                endUpstreamCall(started, e);
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Начало HTTP запроса: место в circuit breaker / bulkhead и учет в адаптивном лимите.
+     * 
+     * @return время начала для endUpstreamCall
+     * @throws UpstreamUnavailableException цепь разомкнута или bulkhead заполнен
+     */
+    private long beginUpstreamCall() throws UpstreamUnavailableException {
+        circuitBreaker.acquire();
+        return adaptiveLimit.onRequestStart();
+    }
+
+    private void endUpstreamCall(long started, Throwable error) {
+        circuitBreaker.release(error);
+        adaptiveLimit.onRequestEnd(started, error);
+    }
+
+    /**
+     * HTTP ошибка RestTemplate с кодом статуса и Retry-After
+     */
+    private static Exception toUpstreamException(RuntimeException e) {
+        if (e instanceof HttpStatusCodeException http) {
+            return new UpstreamHttpException(http.getStatusCode().value(), http.getMessage(),
+                    UpstreamHttpException.parseRetryAfter(http.getResponseHeaders() == null
+                            ? null
+                            : http.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER)));
+        }
+        return e;
+    }
+
+    /**
+     * Ошибка запроса по городу: логируется и оборачивается с названием города.
+     * Постоянные ошибки (UpstreamHttpException.isPermanent) попадают в негативный кэш,
+     * временные не кэшируются.
+     */
+    private Exception toFailure(String city, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+        if (cause instanceof UpstreamUnavailableException unavailable) {
+            log.warn("⛔ Weather API call for city {} rejected: {}", city, unavailable.getMessage());
+            return unavailable;
+        }
+        String message = "Failed to fetch weather data for " + city + ": " + cause.getMessage();
+        log.error("❌ Error fetching weather data for city {}: {}", city, cause.getMessage());
+
+        if (cause instanceof UpstreamHttpException httpError) {
+            UpstreamHttpException failure = new UpstreamHttpException(httpError.getStatusCode(), message);
+            if (failure.isPermanent()) {
+                negativeCache.put(cacheKey(city), failure);
+                log.info("🚫 City {} cached as permanent failure (HTTP {})", city, failure.getStatusCode());
+            }
+            return failure;
+        }
+        return new Exception(message);
+    }
+
+    /**
+     * Обработка успешно полученных данных: запись в кэш и запоминание id города.
+     * Вызывается в потоке I/O reactor, поэтому событие для слушателей (запись в L2,
+     * публикация в RabbitMQ) передается в upstreamFetchExecutor.
+     */
+    private void onFetched(String key, OpenWeatherMapResponse response) {
+        weatherCache.put(key, response);
+        rememberCityId(key, response);
+        WeatherFetchedEvent event = new WeatherFetchedEvent(key, response, System.currentTimeMillis());
+        try {
+            upstreamFetchExecutor.execute(() -> eventPublisher.publishEvent(event));
+        } catch (RejectedExecutionException e) {
+            log.debug("WeatherFetchedEvent for {} dropped: executor is shut down", key);
+        }
+    }
+
+    private void rememberCityId(String key, OpenWeatherMapResponse response) {
+        if (response.getId() != null) {
+            cityIds.put(key, response.getId());
+        }
+    }
+
+    /**
+     * Тело ответа асинхронного клиента; gzip распаковывается вручную,
+     * так как асинхронный клиент (в отличие от классического) этого не делает.
+     */
+    private byte[] readBody(SimpleHttpResponse httpResponse) throws IOException {
+        byte[] body = httpResponse.getBodyBytes();
+        Header contentEncoding = httpResponse.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        if (body != null && contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.getValue())) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                return in.readAllBytes();
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Построение URL запроса с параметрами.
+     */
+    private String buildUrl(String city) {
+        return UriComponentsBuilder.fromHttpUrl(apiUrl)
+                .queryParam("q", city.trim())
+                .queryParam("appid", apiKey)
+                .queryParam("units", "metric") // Температура в Цельсиях
+                .toUriString();
+    }
+}
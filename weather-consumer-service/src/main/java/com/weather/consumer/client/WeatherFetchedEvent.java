@@ -0,0 +1,14 @@
+package com.weather.consumer.client;
+
+import com.weather.consumer.dto.OpenWeatherMapResponse;
+
+/**
+ * Событие успешного получения погоды из внешнего API (не из кэша).
+ * Публикуется WeatherApiClient после каждого запроса к OpenWeatherMap.
+ * 
+ * @param cacheKey нормализованный ключ города (WeatherApiClient.cacheKey)
+ * @param response данные о погоде
+ * @param fetchedAtMillis время получения (epoch millis)
+ */
+public record WeatherFetchedEvent(String cacheKey, OpenWeatherMapResponse response, long fetchedAtMillis) {
+}
@@ -0,0 +1,62 @@
+package com.weather.consumer.client;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Загрузчик кэша "weather" для фонового обновления (refresh-after-write).
+ * 
+ * Когда запись старше weather.cache.refresh-after, Caffeine при следующем чтении
+ * сразу возвращает устаревшее значение и вызывает asyncReload() в фоне.
+ * Обновление проходит через UpstreamRateLimiter, как и обычный промах,
+ * а при ошибке Caffeine оставляет в кэше старое значение.
+ * 
+ * Зависимости получаются лениво через ObjectProvider: WeatherApiClient сам зависит от CacheManager.
+ */
+@Slf4j
+public class WeatherRefreshLoader implements CacheLoader<Object, Object> {
+
+    private final ObjectProvider<WeatherApiClient> weatherApiClient;
+    private final ObjectProvider<UpstreamRateLimiter> upstreamRateLimiter;
+
+    public WeatherRefreshLoader(ObjectProvider<WeatherApiClient> weatherApiClient,
+                                ObjectProvider<UpstreamRateLimiter> upstreamRateLimiter) {
+        this.weatherApiClient = weatherApiClient;
+        this.upstreamRateLimiter = upstreamRateLimiter;
+    }
+
+    /**
+     * Синхронная загрузка при промахе. Сервисы не вызывают ее напрямую
+     * (промахи идут через WeatherConsumerService), но она также соблюдает rate limit.
+     */
+    @Override
+    public Object load(Object key) {
+        return loadAsync(key).join();
+    }
+
+    /**
+     * Асинхронная загрузка отсутствующей записи (упреждающее обновление
+     * популярных городов): поток не блокируется в ожидании rate limiter.
+     */
+    @Override
+    public CompletableFuture<Object> asyncLoad(Object key, Executor executor) {
+        return loadAsync(key);
+    }
+
+    @Override
+    public CompletableFuture<Object> asyncReload(Object key, Object oldValue, Executor executor) {
+        log.debug("🔄 Refreshing weather in background for city: {}", key);
+        return loadAsync(key);
+    }
+
+    private CompletableFuture<Object> loadAsync(Object key) {
+        String city = (String) key;
+        return upstreamRateLimiter.getObject().acquire()
+                .thenCompose(permit -> weatherApiClient.getObject().getWeatherForCityAsync(city))
+                .thenApply(response -> (Object) response);
+    }
+}
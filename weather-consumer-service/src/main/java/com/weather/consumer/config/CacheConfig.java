@@ -1,39 +1,108 @@
-package com.weather.consumer.config;
-
-import com.github.benmanes.caffeine.cache.Caffeine;
-import org.springframework.cache.CacheManager;
-import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.caffeine.CaffeineCacheManager;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-
-import java.util.concurrent.TimeUnit;
-
-/**
- * Конфигурация кэша для Weather Consumer Service.
- * Использует Caffeine - высокопроизводительный in-memory кэш.
- */
-@Configuration
-@EnableCaching
-public class CacheConfig {
-
-    /**
-     * Создает CacheManager с настройками Caffeine.
-     * 
-     * Параметры:
-     * - maximumSize(500): Максимум 500 записей в кэше
-     * - expireAfterWrite(5, MINUTES): Данные устаревают через 5 минут после записи
-     * - recordStats(): Включает статистику кэша (для мониторинга)
-     */
-    @Bean
-    public CacheManager cacheManager() {
-        CaffeineCacheManager cacheManager = new CaffeineCacheManager("weather");
-        
-        cacheManager.setCaffeine(Caffeine.newBuilder()
-                .maximumSize(500)                      // Макс 500 городов в кэше
-                .expireAfterWrite(5, TimeUnit.MINUTES) // TTL = 5 минут
-                .recordStats());                       // Статистика для мониторинга
-        
-        return cacheManager;
-    }
-}
\ No newline at end of file
+package com.weather.consumer.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.weather.consumer.client.UpstreamRateLimiter;
+import com.weather.consumer.client.WeatherApiClient;
+import com.weather.consumer.client.WeatherRefreshLoader;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Конфигурация кэша для Weather Consumer Service.
+ * Использует Caffeine - высокопроизводительный in-memory кэш
+ * с фоновым обновлением (stale-while-revalidate) популярных городов.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    @Value("${weather.cache.maximum-size:500}")
+    private long maximumSize;
+
+    @Value("${weather.cache.refresh-after:4m}")
+    private Duration refreshAfter;
+
+    @Value("${weather.cache.max-staleness:10m}")
+    private Duration maxStaleness;
+
+    @Value("${weather.cache.negative-ttl:2m}")
+    private Duration negativeTtl;
+
+    /**
+     * Создает CacheManager с настройками Caffeine.
+     * 
+     * Параметры:
+     * - maximumSize: максимум записей в кэше (weather.cache.maximum-size)
+     * - refreshAfterWrite: после weather.cache.refresh-after запись обновляется в фоне,
+     *   а читатели продолжают получать устаревшее значение без ожидания
+     * - expireAfter: weather.cache.max-staleness - верхняя граница устаревания,
+     *   после нее запись удаляется и следующий запрос станет обычным промахом.
+     *   Срок задается для каждой записи (MaxStalenessExpiry), чтобы запись из L2
+     *   получала только остаток max-staleness с момента ее получения от API
+     * - recordStats(): Включает статистику кэша (для мониторинга)
+     * 
+     * Отдельный кэш "weather-negative" хранит постоянные ошибки (неизвестный город)
+     * weather.cache.negative-ttl, чтобы опечатки не расходовали лимит запросов к API.
+     */
+    @Bean
+    public CacheManager cacheManager(ObjectProvider<WeatherApiClient> weatherApiClient,
+                                     ObjectProvider<UpstreamRateLimiter> upstreamRateLimiter) {
+        if (refreshAfter.compareTo(maxStaleness) >= 0) {
+            throw new IllegalStateException("weather.cache.refresh-after must be less than weather.cache.max-staleness");
+        }
+
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager("weather");
+        // Загрузчик задается до спецификации: setCaffeine() пересоздает кэш "weather",
+        // а refreshAfterWrite без загрузчика Caffeine отклоняет
+        cacheManager.setCacheLoader(new WeatherRefreshLoader(weatherApiClient, upstreamRateLimiter));
+        cacheManager.setCaffeine(Caffeine.newBuilder()
+                .maximumSize(maximumSize)              // Макс городов в кэше
+                .refreshAfterWrite(refreshAfter)       // Фоновое обновление горячих записей
+                .expireAfter(new MaxStalenessExpiry(maxStaleness)) // Граница устаревания
+                .recordStats());                       // Статистика для мониторинга
+
+        cacheManager.registerCustomCache("weather-negative", Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(negativeTtl)         // Короткий TTL для ошибок
+                .recordStats()
+                .build());
+        
+        return cacheManager;
+    }
+
+    /**
+     * Срок жизни max-staleness с момента записи или обновления (как expireAfterWrite);
+     * WeatherApiClient сокращает его для записей из L2 через Policy.VarExpiration.
+     */
+    private static class MaxStalenessExpiry implements Expiry<Object, Object> {
+
+        private final long maxStalenessNanos;
+
+        MaxStalenessExpiry(Duration maxStaleness) {
+            this.maxStalenessNanos = maxStaleness.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(Object key, Object value, long currentTime) {
+            return maxStalenessNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+            return maxStalenessNanos;
+        }
+
+        @Override
+        public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.weather.consumer.config;
+
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Конфигурация обмена кэшем между экземплярами consumer (weather.cache.sync.enabled).
+ * 
+ * Каждый экземпляр публикует полученные из API данные в fanout exchange и
+ * слушает собственную анонимную очередь (exclusive, auto-delete), привязанную к нему.
+ */
+@Configuration
+@ConditionalOnProperty(value = "weather.cache.sync.enabled", havingValue = "true")
+public class CacheSyncConfig {
+
+    @Value("${weather.cache.sync.exchange:weather.cache.sync.exchange}")
+    private String exchangeName;
+
+    /**
+     * Fanout exchange: каждое сообщение получают все экземпляры consumer
+     */
+    @Bean
+    public FanoutExchange cacheSyncExchange() {
+        return new FanoutExchange(exchangeName);
+    }
+
+    /**
+     * Очередь этого экземпляра; удаляется брокером при остановке consumer
+     */
+    @Bean
+    public Queue cacheSyncQueue() {
+        return new AnonymousQueue(new Base64UrlNamingStrategy("weather.cache.sync."));
+    }
+
+    @Bean
+    public Binding cacheSyncBinding(Queue cacheSyncQueue, FanoutExchange cacheSyncExchange) {
+        return BindingBuilder
+                .bind(cacheSyncQueue)
+                .to(cacheSyncExchange);
+    }
+}
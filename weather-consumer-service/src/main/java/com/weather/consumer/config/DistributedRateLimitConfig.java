@@ -0,0 +1,47 @@
+package com.weather.consumer.config;
+
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Конфигурация распределенного rate limiter (weather.api.rate-limit.distributed.enabled).
+ * 
+ * - weather.ratelimit.lease.queue: запросы аренды разрешений. Single active consumer:
+ *   из всех экземпляров сообщения получает только один - он и есть глобальный эмитент.
+ *   При его остановке брокер сам передает роль следующему подписчику.
+ *   Устаревшие запросы (старше issuer-timeout) брокер отбрасывает.
+ * - анонимная очередь экземпляра для ответов эмитента (exclusive, auto-delete)
+ * 
+ * Запросы и ответы идут через default exchange напрямую по имени очереди.
+ */
+@Configuration
+@ConditionalOnProperty(value = "weather.api.rate-limit.distributed.enabled", havingValue = "true")
+public class DistributedRateLimitConfig {
+
+    @Value("${weather.api.rate-limit.distributed.lease-queue:weather.ratelimit.lease.queue}")
+    private String leaseQueueName;
+
+    @Value("${weather.api.rate-limit.distributed.issuer-timeout:2s}")
+    private Duration issuerTimeout;
+
+    @Bean
+    public Queue permitLeaseQueue() {
+        return QueueBuilder.durable(leaseQueueName)
+                .singleActiveConsumer()
+                .ttl((int) issuerTimeout.toMillis())
+                .build();
+    }
+
+    @Bean
+    public Queue permitReplyQueue() {
+        return new AnonymousQueue(new Base64UrlNamingStrategy("weather.ratelimit.reply."));
+    }
+}
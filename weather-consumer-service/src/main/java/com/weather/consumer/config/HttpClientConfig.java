@@ -0,0 +1,189 @@
+package com.weather.consumer.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Конфигурация HTTP клиентов для запросов к OpenWeatherMap API.
+ *
+ * Оба клиента (синхронный RestTemplate и асинхронный для конвейерного режима)
+ * построены на Apache HttpClient 5:
+ * - пул постоянных (keep-alive) соединений: промах кэша не платит за TCP+TLS handshake
+ * - HTTP/2 через ALPN для асинхронного клиента (weather.api.http.http2)
+ * - gzip сжатие ответов (weather.api.http.gzip)
+ * - таймауты подключения, ожидания соединения из пула и ответа на каждый запрос
+ * - метрики пулов weather.upstream.pool.* (leased, available, pending, max)
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${weather.api.http.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${weather.api.http.max-connections-per-route:20}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${weather.api.http.connect-timeout:2s}")
+    private Duration connectTimeout;
+
+    @Value("${weather.api.http.connection-request-timeout:2s}")
+    private Duration connectionRequestTimeout;
+
+    @Value("${weather.api.http.response-timeout:5s}")
+    private Duration responseTimeout;
+
+    @Value("${weather.api.http.keep-alive:60s}")
+    private Duration keepAlive;
+
+    @Value("${weather.api.http.http2:true}")
+    private boolean http2;
+
+    @Value("${weather.api.http.gzip:true}")
+    private boolean gzip;
+
+    /**
+     * Пул соединений синхронного клиента (RestTemplate).
+     */
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager upstreamConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig())
+                .build();
+    }
+
+    /**
+     * RestTemplate для HTTP запросов к Weather API поверх пула соединений.
+     * Классический клиент сам добавляет Accept-Encoding и распаковывает gzip.
+     */
+    @Bean
+    public RestTemplate restTemplate(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(upstreamConnectionManager)
+                .setDefaultRequestConfig(requestConfig())
+                .evictIdleConnections(TimeValue.of(keepAlive));
+        if (!gzip) {
+            builder.disableContentCompression();
+        }
+        CloseableHttpClient httpClient = builder.build();
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    /**
+     * Пул соединений асинхронного клиента.
+     * NEGOTIATE включает HTTP/2 через ALPN, если сервер его поддерживает.
+     */
+    @Bean(destroyMethod = "close")
+    public PoolingAsyncClientConnectionManager upstreamAsyncConnectionManager() {
+        return PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig())
+                .setDefaultTlsConfig(TlsConfig.custom()
+                        .setVersionPolicy(http2 ? HttpVersionPolicy.NEGOTIATE : HttpVersionPolicy.FORCE_HTTP_1)
+                        .build())
+                .build();
+    }
+
+    /**
+     * Асинхронный HTTP клиент для конвейерного режима (weather.consumer.pipelined).
+     * Несколько потоков I/O reactor обслуживают сотни одновременных запросов.
+     * Автоматические повторы (429/503) отключены: они обходили бы rate limiter,
+     * а временные ошибки повторяются через очередь повторов WeatherConsumerService.
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpAsyncClient upstreamAsyncClient(PoolingAsyncClientConnectionManager upstreamAsyncConnectionManager) {
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(upstreamAsyncConnectionManager)
+                .setDefaultRequestConfig(requestConfig())
+                .evictIdleConnections(TimeValue.of(keepAlive))
+                .disableAutomaticRetries()
+                .build();
+        client.start();
+        return client;
+    }
+
+    /**
+     * Пул потоков для запросов к Weather API при промахе кэша.
+     * Потоки слушателей RabbitMQ не ждут rate limiter и HTTP ответ.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService upstreamFetchExecutor(@Value("${weather.api.fetch-threads:4}") int fetchThreads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(fetchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "upstream-fetch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Метрики обоих пулов соединений: weather.upstream.pool.{leased,available,pending,max}{client=sync|async}.
+     */
+    @Bean
+    public MeterBinder upstreamPoolMetrics(PoolingHttpClientConnectionManager upstreamConnectionManager,
+                                           PoolingAsyncClientConnectionManager upstreamAsyncConnectionManager) {
+        return registry -> {
+            bindPool(registry, "sync", upstreamConnectionManager);
+            bindPool(registry, "async", upstreamAsyncConnectionManager);
+        };
+    }
+
+    private void bindPool(MeterRegistry registry, String client, ConnPoolControl<?> pool) {
+        gauge(registry, "weather.upstream.pool.leased", client, pool, PoolStats::getLeased);
+        gauge(registry, "weather.upstream.pool.available", client, pool, PoolStats::getAvailable);
+        gauge(registry, "weather.upstream.pool.pending", client, pool, PoolStats::getPending);
+        gauge(registry, "weather.upstream.pool.max", client, pool, PoolStats::getMax);
+    }
+
+    private void gauge(MeterRegistry registry, String name, String client,
+                       ConnPoolControl<?> pool, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, pool, p -> value.applyAsDouble(p.getTotalStats()))
+                .tag("client", client)
+                .register(registry);
+    }
+
+    private ConnectionConfig connectionConfig() {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(connectTimeout))
+                .setTimeToLive(TimeValue.of(keepAlive))
+                .build();
+    }
+
+    private RequestConfig requestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+                .setResponseTimeout(Timeout.of(responseTimeout))
+                .build();
+    }
+}
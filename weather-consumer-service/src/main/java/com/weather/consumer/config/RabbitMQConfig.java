@@ -4,16 +4,20 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -39,16 +43,26 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.routing-key.request}")
     private String requestRoutingKey;
 
+    @Value("${rabbitmq.shards.count}")
+    private int shardCount;
+
+    @Value("${rabbitmq.queue.max-priority:10}")
+    private int maxPriority;
+
     /**
      * ✅ Очередь для получения запросов на погоду с настройкой DLQ.
      * 
      * ВАЖНО: x-dead-letter-routing-key должен быть задан явно!
+     * Аргументы очереди нельзя изменить у существующей очереди: после добавления
+     * x-max-priority старую weather.request.queue нужно удалить (иначе PRECONDITION_FAILED).
      */
     @Bean
     public Queue requestQueue() {
         Map<String, Object> args = new HashMap<>();
         args.put("x-dead-letter-exchange", exchangeName);
         args.put("x-dead-letter-routing-key", "weather.request.dlq");
+        // Приоритетная очередь: интерактивные запросы выдаются раньше пакетных
+        args.put("x-max-priority", maxPriority);
         
         return QueueBuilder.durable(requestQueueName)
                 .withArguments(args)
@@ -75,11 +89,55 @@ public class RabbitMQConfig {
     }
 
     /**
-     * Очередь для отправки ответов с данными о погоде
+     * Очереди отложенных повторов weather.request.retry.{attempt} (weather.consumer.retry.enabled).
+     * 
+     * Сообщение с временной ошибкой публикуется в очередь своей попытки и лежит там
+     * initial-delay * multiplier^(attempt-1) (x-message-ttl), не занимая поток слушателя.
+     * По истечении TTL брокер возвращает его через dead-letter в weather.request.queue.
+     * Аргументы очередей зависят от настроек: при их изменении очереди нужно удалить.
+     */
+    @Bean
+    public Declarables retryDeclarables(TopicExchange weatherExchange,
+                                        @Value("${weather.consumer.retry.max-attempts:3}") int maxAttempts,
+                                        @Value("${weather.consumer.retry.initial-delay:500ms}") Duration initialDelay,
+                                        @Value("${weather.consumer.retry.multiplier:2.0}") double multiplier) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long delayMillis = (long) (initialDelay.toMillis() * Math.pow(multiplier, attempt - 1));
+            String name = requestRoutingKey + ".retry." + attempt;
+            Queue queue = QueueBuilder.durable(name)
+                    .ttl((int) delayMillis)
+                    .deadLetterExchange(exchangeName)
+                    .deadLetterRoutingKey(requestRoutingKey)
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder
+                    .bind(queue)
+                    .to(weatherExchange)
+                    .with(name));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * Очереди шардов ответов weather.response.queue.{shard}.
+     * Объявляются и здесь, чтобы ответы не терялись, пока агрегатор не запущен.
+     * Аргументы должны совпадать с объявлением в weather-aggregator-service.
      */
     @Bean
-    public Queue responseQueue() {
-        return new Queue(responseQueueName, true);
+    public Declarables responseShardDeclarables(TopicExchange weatherExchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            Queue queue = QueueBuilder.durable(responseQueueName + "." + shard)
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder
+                    .bind(queue)
+                    .to(weatherExchange)
+                    .with(responseRoutingKey + "." + shard));
+        }
+        return new Declarables(declarables);
     }
 
     /**
@@ -101,17 +159,6 @@ public class RabbitMQConfig {
                 .with(requestRoutingKey);
     }
 
-    /**
-     * Binding для очереди ответов
-     */
-    @Bean
-    public Binding responseBinding(Queue responseQueue, TopicExchange weatherExchange) {
-        return BindingBuilder
-                .bind(responseQueue)
-                .to(weatherExchange)
-                .with(responseRoutingKey);
-    }
-
     /**
      * JSON конвертер для сообщений
      */
@@ -134,10 +181,24 @@ public class RabbitMQConfig {
     }
 
     /**
-     * RestTemplate для HTTP запросов к Weather API
+     * Фабрика контейнеров для пакетного слушателя (weather.consumer.batch.enabled).
+     * 
+     * Наследует настройки spring.rabbitmq.listener.simple (ручной ack, prefetch, потоки)
+     * и собирает до batch.size сообщений; неполный пакет отдается, если за
+     * batch.receive-timeout не пришло новых сообщений. prefetch должен быть не меньше batch.size.
      */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public SimpleRabbitListenerContainerFactory batchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${weather.consumer.batch.size:50}") int batchSize,
+            @Value("${weather.consumer.batch.receive-timeout:200ms}") Duration receiveTimeout) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout.toMillis());
+        return factory;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package com.weather.consumer.controller;
+
+import com.weather.consumer.deadletter.DeadLetterReplayService;
+import com.weather.consumer.deadletter.DeadLetterStore;
+import com.weather.consumer.dto.DeadLetterEntry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * REST контроллер для просмотра и повторной отправки dead letter сообщений.
+ * 
+ * Все методы принимают необязательные фильтры:
+ * correlationId, city, from и to (ISO дата-время, например 2025-10-30T10:00:00).
+ */
+@RestController
+@RequestMapping("/api/dead-letters")
+@RequiredArgsConstructor
+public class DeadLetterController {
+
+    private final DeadLetterStore deadLetterStore;
+    private final DeadLetterReplayService replayService;
+
+    /**
+     * Список ожидающих dead letter сообщений.
+     * 
+     * HTTP метод: GET
+     * URL: /api/dead-letters?city=Moscow&limit=100
+     */
+    @GetMapping
+    public List<DeadLetterEntry> list(
+            @RequestParam(required = false) String correlationId,
+            @RequestParam(required = false) String city,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "100") int limit) {
+        return deadLetterStore.find(correlationId, city, from, to, limit);
+    }
+
+    /**
+     * Количество ожидающих dead letter сообщений и сообщений в очереди повторной отправки.
+     * 
+     * HTTP метод: GET
+     * URL: /api/dead-letters/count
+     */
+    @GetMapping("/count")
+    public Map<String, Long> count(
+            @RequestParam(required = false) String correlationId,
+            @RequestParam(required = false) String city,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return Map.of(
+                "count", deadLetterStore.count(correlationId, city, from, to),
+                "replayPending", (long) replayService.getPendingCount());
+    }
+
+    /**
+     * Повторная отправка в weather.request.queue со скоростью weather.deadletter.replay.permits-per-second.
+     * Отправка асинхронная: ответ содержит количество поставленных в очередь сообщений.
+     * 
+     * HTTP метод: POST
+     * URL: /api/dead-letters/replay?from=2025-10-30T10:00:00&limit=1000
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<Map<String, Integer>> replay(
+            @RequestParam(required = false) String correlationId,
+            @RequestParam(required = false) String city,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "1000") int limit) {
+        int scheduled = replayService.replay(correlationId, city, from, to, limit);
+        return ResponseEntity.accepted().body(Map.of("scheduled", scheduled));
+    }
+}
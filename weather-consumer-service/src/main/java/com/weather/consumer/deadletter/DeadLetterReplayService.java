@@ -0,0 +1,106 @@
+package com.weather.consumer.deadletter;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.weather.consumer.dto.DeadLetterEntry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Повторная отправка dead letter сообщений из DeadLetterStore в weather.request.queue.
+ * 
+ * Отправка идет в отдельном потоке со скоростью weather.deadletter.replay.permits-per-second
+ * (Guava RateLimiter): после инцидента можно вернуть тысячи сообщений, не перегружая
+ * consumer и лимит внешнего API. Отправленная запись отмечается в хранилище и больше
+ * не попадает в выборки; сообщение уходит без x-retry-count, т.е. с полным набором повторов.
+ */
+@Slf4j
+@Service
+public class DeadLetterReplayService {
+
+    private final DeadLetterStore deadLetterStore;
+    private final RabbitTemplate rabbitTemplate;
+    private final RateLimiter rateLimiter;
+
+    /**
+     * id записей, ожидающих отправки: повторный вызов replay() не отправит их дважды
+     */
+    private final Set<Long> scheduled = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dead-letter-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${rabbitmq.exchange.weather}")
+    private String exchangeName;
+
+    @Value("${rabbitmq.routing-key.request}")
+    private String requestRoutingKey;
+
+    public DeadLetterReplayService(DeadLetterStore deadLetterStore, RabbitTemplate rabbitTemplate,
+                                   @Value("${weather.deadletter.replay.permits-per-second:5.0}") double permitsPerSecond) {
+        this.deadLetterStore = deadLetterStore;
+        this.rabbitTemplate = rabbitTemplate;
+        this.rateLimiter = RateLimiter.create(permitsPerSecond);
+    }
+
+    /**
+     * Ставит в очередь отправки ожидающие записи по фильтрам.
+     * 
+     * @return количество записей, поставленных в очередь отправки
+     */
+    public int replay(String correlationId, String city, LocalDateTime from, LocalDateTime to, int limit) {
+        List<DeadLetterEntry> entries = deadLetterStore.find(correlationId, city, from, to, Integer.MAX_VALUE).stream()
+                .filter(entry -> scheduled.add(entry.getId()))
+                .limit(limit)
+                .toList();
+        log.info("♻️ Scheduled replay of {} dead letters", entries.size());
+        entries.forEach(entry -> executor.execute(() -> replayOne(entry)));
+        return entries.size();
+    }
+
+    /**
+     * Количество записей, ожидающих отправки.
+     */
+    public int getPendingCount() {
+        return scheduled.size();
+    }
+
+    private void replayOne(DeadLetterEntry entry) {
+        rateLimiter.acquire();
+        try {
+            Message message = MessageBuilder.withBody(entry.getPayload().getBytes(StandardCharsets.UTF_8))
+                    .setContentType(MessageProperties.CONTENT_TYPE_JSON)
+                    .setContentEncoding(StandardCharsets.UTF_8.name())
+                    .build();
+            rabbitTemplate.send(exchangeName, requestRoutingKey, message);
+            deadLetterStore.markReplayed(entry.getId());
+            log.debug("Replayed dead letter {} for city {} (correlation ID: {})",
+                    entry.getId(), entry.getCity(), entry.getCorrelationId());
+        } catch (Exception e) {
+            log.error("Error replaying dead letter {}: {}", entry.getId(), e.getMessage());
+        } finally {
+            scheduled.remove(entry.getId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,230 @@
+package com.weather.consumer.deadletter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.weather.consumer.client.WeatherApiClient;
+import com.weather.consumer.dto.DeadLetterEntry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Локальное append-only хранилище dead letter сообщений.
+ * 
+ * Файл состоит из записей [type:1][length:4][JSON], где type:
+ * - 'D' - dead letter (DeadLetterEntry), id записи = ее смещение в файле
+ * - 'R' - отметка о повторной отправке записи с указанным id
+ * Записи никогда не изменяются; при старте файл читается целиком и по нему
+ * строятся индексы в памяти: по correlationId, по городу (WeatherApiClient.cacheKey)
+ * и по времени. Повторно отправленные записи из индексов исключаются.
+ * Недописанный хвост (сбой во время записи) при старте отбрасывается.
+ */
+@Slf4j
+@Component
+public class DeadLetterStore {
+
+    private static final byte TYPE_DEAD_LETTER = 'D';
+    private static final byte TYPE_REPLAYED = 'R';
+    private static final int RECORD_HEADER_SIZE = 5;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${weather.deadletter.store.path:./data/dead-letters.log}")
+    private Path path;
+
+    private FileChannel channel;
+
+    // Индексы, защищены монитором this
+    private final Map<Long, DeadLetterEntry> entries = new HashMap<>();
+    private final Map<String, Set<Long>> byCorrelationId = new HashMap<>();
+    private final Map<String, Set<Long>> byCity = new HashMap<>();
+    private final NavigableMap<LocalDateTime, Set<Long>> byTime = new TreeMap<>();
+
+    public DeadLetterStore(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            byte type = header.get();
+            int length = header.getInt();
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            channel.read(body, position + RECORD_HEADER_SIZE);
+
+            if (type == TYPE_DEAD_LETTER) {
+                DeadLetterEntry entry = objectMapper.readValue(body.array(), DeadLetterEntry.class);
+                entry.setId(position);
+                index(entry);
+            } else if (type == TYPE_REPLAYED) {
+                unindex(body.flip().getLong());
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        if (position < size) {
+            log.warn("Truncating incomplete tail of dead letter store {} at {} bytes", path, position);
+            channel.truncate(position);
+        }
+        log.info("Opened dead letter store {}: {} pending dead letters", path, entries.size());
+    }
+
+    /**
+     * Добавляет dead letter в хранилище.
+     * 
+     * @return запись с присвоенным id
+     */
+    public synchronized DeadLetterEntry append(DeadLetterEntry entry) throws IOException {
+        entry.setId(write(TYPE_DEAD_LETTER, objectMapper.writeValueAsBytes(entry)));
+        index(entry);
+        return entry;
+    }
+
+    /**
+     * Отмечает запись как повторно отправленную: она пропадает из выборок.
+     */
+    public synchronized void markReplayed(long id) throws IOException {
+        if (entries.containsKey(id)) {
+            write(TYPE_REPLAYED, ByteBuffer.allocate(Long.BYTES).putLong(id).array());
+            unindex(id);
+        }
+    }
+
+    /**
+     * Ожидающие записи по фильтрам (любой фильтр может быть null) в порядке поступления.
+     * 
+     * @param limit максимальное количество записей
+     */
+    public synchronized List<DeadLetterEntry> find(String correlationId, String city,
+                                                   LocalDateTime from, LocalDateTime to, int limit) {
+        return matching(correlationId, city, from, to)
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Количество ожидающих записей по фильтрам (любой фильтр может быть null).
+     */
+    public synchronized long count(String correlationId, String city, LocalDateTime from, LocalDateTime to) {
+        return matching(correlationId, city, from, to).count();
+    }
+
+    /**
+     * Кандидаты берутся из самого узкого индекса, остальные фильтры проверяются по записи.
+     */
+    private Stream<DeadLetterEntry> matching(String correlationId, String city, LocalDateTime from, LocalDateTime to) {
+        Collection<Long> candidates;
+        if (correlationId != null) {
+            candidates = byCorrelationId.getOrDefault(correlationId, Set.of());
+        } else if (city != null) {
+            candidates = byCity.getOrDefault(WeatherApiClient.cacheKey(city), Set.of());
+        } else {
+            NavigableMap<LocalDateTime, Set<Long>> range = byTime;
+            if (from != null) {
+                range = range.tailMap(from, true);
+            }
+            if (to != null) {
+                range = range.headMap(to, true);
+            }
+            candidates = new ArrayList<>();
+            range.values().forEach(candidates::addAll);
+        }
+
+        String cityKey = city == null ? null : WeatherApiClient.cacheKey(city);
+        return candidates.stream()
+                .sorted()
+                .map(entries::get)
+                .filter(entry -> correlationId == null || correlationId.equals(entry.getCorrelationId()))
+                .filter(entry -> cityKey == null
+                        || (entry.getCity() != null && cityKey.equals(WeatherApiClient.cacheKey(entry.getCity()))))
+                .filter(entry -> from == null || !entry.getDeadLetteredAt().isBefore(from))
+                .filter(entry -> to == null || !entry.getDeadLetteredAt().isAfter(to));
+    }
+
+    private long write(byte type, byte[] body) throws IOException {
+        long position = channel.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+        record.put(type).putInt(body.length).put(body).flip();
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+        channel.force(false);
+        return position;
+    }
+
+    private void index(DeadLetterEntry entry) {
+        long id = entry.getId();
+        entries.put(id, entry);
+        if (entry.getCorrelationId() != null) {
+            byCorrelationId.computeIfAbsent(entry.getCorrelationId(), key -> new HashSet<>()).add(id);
+        }
+        if (entry.getCity() != null) {
+            byCity.computeIfAbsent(WeatherApiClient.cacheKey(entry.getCity()), key -> new HashSet<>()).add(id);
+        }
+        byTime.computeIfAbsent(entry.getDeadLetteredAt(), key -> new HashSet<>()).add(id);
+    }
+
+    private void unindex(long id) {
+        DeadLetterEntry entry = entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        removeFrom(byCorrelationId, entry.getCorrelationId(), id);
+        removeFrom(byCity, entry.getCity() == null ? null : WeatherApiClient.cacheKey(entry.getCity()), id);
+        removeFrom(byTime, entry.getDeadLetteredAt(), id);
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Long>> index, K key, long id) {
+        if (key == null) {
+            return;
+        }
+        Set<Long> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
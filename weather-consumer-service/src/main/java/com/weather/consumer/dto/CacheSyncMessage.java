@@ -0,0 +1,37 @@
+package com.weather.consumer.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * DTO для обмена кэшем между экземплярами consumer.
+ * Публикуется в fanout exchange после каждого успешного запроса к Weather API.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheSyncMessage implements Serializable {
+
+    /**
+     * Идентификатор экземпляра consumer, получившего данные (свои сообщения пропускаются)
+     */
+    private String originId;
+
+    /**
+     * Нормализованный ключ города
+     */
+    private String cacheKey;
+
+    /**
+     * Время получения данных из Weather API (epoch millis)
+     */
+    private long fetchedAtMillis;
+
+    /**
+     * Данные о погоде
+     */
+    private OpenWeatherMapResponse response;
+}
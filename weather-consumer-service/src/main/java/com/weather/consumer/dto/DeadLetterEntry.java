@@ -0,0 +1,52 @@
+package com.weather.consumer.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Запись хранилища dead letter сообщений (DeadLetterStore).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeadLetterEntry implements Serializable {
+
+    /**
+     * Идентификатор записи (смещение в файле хранилища)
+     */
+    private long id;
+
+    /**
+     * Идентификатор корреляции исходного запроса (null, если сообщение не разобрано)
+     */
+    private String correlationId;
+
+    /**
+     * Название города (null, если сообщение не разобрано)
+     */
+    private String city;
+
+    /**
+     * Причина из заголовка x-death (rejected, expired, maxlen)
+     */
+    private String reason;
+
+    /**
+     * Количество выполненных отложенных повторов (заголовок x-retry-count)
+     */
+    private int retryCount;
+
+    /**
+     * Время попадания в хранилище
+     */
+    private LocalDateTime deadLetteredAt;
+
+    /**
+     * Исходное тело сообщения (JSON WeatherMessage), используется для повторной отправки
+     */
+    private String payload;
+}
@@ -0,0 +1,33 @@
+package com.weather.consumer.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO для ответа group endpoint OpenWeatherMap API (погода для нескольких городов по id).
+ * 
+ * Пример ответа API:
+ * {
+ *   "cnt": 2,
+ *   "list": [
+ *     {"id": 524901, "name": "Moscow", "main": {...}, "weather": [...], "wind": {...}},
+ *     {"id": 2643743, "name": "London", "main": {...}, "weather": [...], "wind": {...}}
+ *   ]
+ * }
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class OpenWeatherMapGroupResponse {
+
+    /**
+     * Количество городов в ответе
+     */
+    private int cnt;
+
+    /**
+     * Данные о погоде по каждому городу (формат как у одиночного запроса)
+     */
+    private List<OpenWeatherMapResponse> list;
+}
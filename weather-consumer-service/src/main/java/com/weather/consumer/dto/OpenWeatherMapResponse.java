@@ -22,6 +22,7 @@ import java.util.List;
  *     "humidity": 65
  *   },
  *   "wind": {"speed": 3.5, "deg": 180},
+ *   "id": 524901,
  *   "name": "Moscow"
  * }
  */
@@ -29,6 +30,11 @@ import java.util.List;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class OpenWeatherMapResponse {
     
+    /**
+     * Идентификатор города в OpenWeatherMap (для пакетных запросов по id)
+     */
+    private Long id;
+    
     /**
      * Название города
      */
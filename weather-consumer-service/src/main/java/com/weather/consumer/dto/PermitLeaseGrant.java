@@ -0,0 +1,31 @@
+package com.weather.consumer.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Ответ глобального эмитента разрешений на PermitLeaseRequest.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PermitLeaseGrant implements Serializable {
+
+    /**
+     * Выданное количество разрешений (может быть 0, если глобальное ведро пусто)
+     */
+    private int permits;
+
+    /**
+     * Срок аренды в мс: неиспользованные за это время разрешения сгорают
+     */
+    private long leaseMillis;
+
+    /**
+     * Через сколько мс имеет смысл запросить снова (если permits = 0)
+     */
+    private long retryAfterMillis;
+}
@@ -0,0 +1,31 @@
+package com.weather.consumer.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Запрос пачки разрешений на вызов Weather API у глобального эмитента (распределенный rate limiter).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PermitLeaseRequest implements Serializable {
+
+    /**
+     * Идентификатор экземпляра consumer
+     */
+    private String instanceId;
+
+    /**
+     * Очередь экземпляра, в которую отправляется ответ (PermitLeaseGrant)
+     */
+    private String replyTo;
+
+    /**
+     * Запрошенное количество разрешений
+     */
+    private int permits;
+}
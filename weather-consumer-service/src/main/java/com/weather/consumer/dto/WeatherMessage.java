@@ -20,4 +20,19 @@ public class WeatherMessage implements Serializable {
     private String city;
     private int totalCities;
     private LocalDateTime timestamp;
+
+    /**
+     * Идентификатор экземпляра API сервиса, которому адресуются ответы
+     */
+    private String replyTo;
+
+    /**
+     * Приоритет запроса: с большим приоритетом раньше получают разрешение UpstreamRateLimiter
+     */
+    private int priority;
+
+    /**
+     * Позиция города в запросе, возвращается в WeatherResponse без изменений
+     */
+    private Integer cityIndex;
 }
@@ -65,4 +65,14 @@ public class WeatherResponse implements Serializable {
      * Временная метка получения данных
      */
     private LocalDateTime timestamp;
+
+    /**
+     * Идентификатор экземпляра API сервиса, которому адресуются ответы (из WeatherMessage)
+     */
+    private String replyTo;
+
+    /**
+     * Позиция города в исходном запросе (из WeatherMessage)
+     */
+    private Integer cityIndex;
 }
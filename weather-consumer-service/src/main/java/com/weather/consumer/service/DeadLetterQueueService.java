@@ -1,31 +1,76 @@
-package com.weather.consumer.service;
-
-import com.weather.consumer.dto.WeatherMessage;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.stereotype.Service;
-
-/**
- * Сервис для обработки сообщений из Dead Letter Queue.
- * Логирует проблемные сообщения для дальнейшего анализа.
- */
-@Slf4j
-@Service
-public class DeadLetterQueueService {
-
-    @RabbitListener(queues = "weather.request.dlq")
-    public void handleDeadLetter(WeatherMessage weatherMessage) {
-        log.error("=== DEAD LETTER MESSAGE RECEIVED ===");
-        log.error("Correlation ID: {}", weatherMessage.getCorrelationId());
-        log.error("City: {}", weatherMessage.getCity());
-        log.error("Total Cities: {}", weatherMessage.getTotalCities());
-        log.error("Timestamp: {}", weatherMessage.getTimestamp());
-        log.error("====================================");
-        
-        // Здесь можно:
-        // 1. Сохранить в базу данных для анализа
-        // 2. Отправить уведомление администратору
-        // 3. Попытаться обработать с другой логикой
-        // 4. Отправить в систему мониторинга (Prometheus, ELK)
-    }
-}
+package com.weather.consumer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import com.weather.consumer.deadletter.DeadLetterStore;
+import com.weather.consumer.dto.DeadLetterEntry;
+import com.weather.consumer.dto.WeatherMessage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сервис для обработки сообщений из Dead Letter Queue.
+ * Сохраняет проблемные сообщения в DeadLetterStore для анализа и повторной
+ * отправки через /api/dead-letters (DeadLetterController).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeadLetterQueueService {
+
+    private final DeadLetterStore deadLetterStore;
+    private final ObjectMapper objectMapper;
+
+    @RabbitListener(queues = "weather.request.dlq")
+    public void handleDeadLetter(Message message, Channel channel) throws Exception {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+
+        WeatherMessage weatherMessage = null;
+        try {
+            weatherMessage = objectMapper.readValue(message.getBody(), WeatherMessage.class);
+        } catch (Exception e) {
+            log.warn("Dead letter is not a valid weather request: {}", e.getMessage());
+        }
+
+        Object retryHeader = message.getMessageProperties().getHeader(WeatherConsumerService.RETRY_COUNT_HEADER);
+        DeadLetterEntry entry = new DeadLetterEntry(
+                0,
+                weatherMessage == null ? null : weatherMessage.getCorrelationId(),
+                weatherMessage == null ? null : weatherMessage.getCity(),
+                deathReason(message),
+                retryHeader instanceof Number number ? number.intValue() : 0,
+                LocalDateTime.now(),
+                payload);
+
+        try {
+            deadLetterStore.append(entry);
+            log.error("=== DEAD LETTER {} stored: city {}, correlation ID {}, reason {}, retries {} ===",
+                    entry.getId(), entry.getCity(), entry.getCorrelationId(), entry.getReason(), entry.getRetryCount());
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        } catch (Exception e) {
+            // Сообщение остается в DLQ и будет доставлено снова
+            log.error("Error storing dead letter: {}", e.getMessage());
+            channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, true);
+        }
+    }
+
+    /**
+     * Причина из первой записи заголовка x-death (rejected, expired, maxlen)
+     */
+    private static String deathReason(Message message) {
+        List<Map<String, ?>> deaths = message.getMessageProperties().getXDeathHeader();
+        if (deaths == null || deaths.isEmpty()) {
+            return null;
+        }
+        Object reason = deaths.get(0).get("reason");
+        return reason == null ? null : reason.toString();
+    }
+}
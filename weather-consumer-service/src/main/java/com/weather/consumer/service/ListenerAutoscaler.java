@@ -0,0 +1,234 @@
+package com.weather.consumer.service;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.weather.consumer.client.UpstreamRateLimiter;
+import com.weather.consumer.client.WeatherApiClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Автомасштабирование слушателя очереди запросов по глубине очереди.
+ * 
+ * Раз в weather.consumer.autoscale.interval снимает:
+ * - глубину weather.request.queue (сообщения, еще не выданные consumer)
+ * - среднее время обработки сообщения за интервал
+ * - долю попаданий в кэш "weather" за интервал
+ * и меняет число потребителей и prefetch работающего контейнера в пределах настроек:
+ * - рост: в очереди больше scale-up-depth сообщений на потребителя и обработка
+ *   упирается не во внешний API (доля попаданий не ниже min-hit-rate или
+ *   у UpstreamRateLimiter нет очереди) - +1 потребитель, prefetch x2
+ * - спад: очередь пуста scale-down-idle-samples замеров подряд, нет запросов,
+ *   ожидающих rate limiter, и нет асинхронных запросов с еще не выполненным ack -
+ *   -1 потребитель, prefetch / 2
+ * Если промахи и так ждут rate limiter, новые потоки только увеличат очередь ожидания.
+ * 
+ * Новый prefetch применяется к вновь запускаемым потребителям. Остановка потребителя
+ * закрывает его канал, поэтому уменьшение откладывается, пока есть асинхронные запросы:
+ * их ack из upstreamFetchExecutor на закрытом канале не прошел бы, и брокер доставил бы
+ * сообщения повторно с повторными запросами к API и дублирующимися ответами.
+ * 
+ * Метрики: weather.consumer.autoscale.{consumers,prefetch,queue.depth,hit.rate,latency}
+ * и счетчик решений weather.consumer.autoscale.decisions{direction=up|down}.
+ */
+@Slf4j
+@Component
+public class ListenerAutoscaler {
+
+    public static final String SINGLE_LISTENER_ID = "weatherRequestListener";
+    public static final String BATCH_LISTENER_ID = "weatherRequestBatchListener";
+
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final AmqpAdmin amqpAdmin;
+    private final WeatherApiClient weatherApiClient;
+    private final UpstreamRateLimiter upstreamRateLimiter;
+
+    private final LongAdder processedCount = new LongAdder();
+    private final LongAdder processedNanos = new LongAdder();
+    // Сообщения, обрабатываемые асинхронно (промах кэша) и еще не подтвержденные
+    private final AtomicInteger asyncInFlight = new AtomicInteger();
+
+    private final Counter scaleUps;
+    private final Counter scaleDowns;
+
+    @Value("${rabbitmq.queue.request}")
+    private String requestQueueName;
+
+    @Value("${weather.consumer.autoscale.enabled:false}")
+    private boolean enabled;
+
+    @Value("${weather.consumer.autoscale.min-consumers:2}")
+    private int minConsumers;
+
+    @Value("${weather.consumer.autoscale.max-consumers:20}")
+    private int maxConsumers;
+
+    @Value("${weather.consumer.autoscale.min-prefetch:10}")
+    private int minPrefetch;
+
+    @Value("${weather.consumer.autoscale.max-prefetch:500}")
+    private int maxPrefetch;
+
+    @Value("${weather.consumer.autoscale.scale-up-depth:100}")
+    private int scaleUpDepth;
+
+    @Value("${weather.consumer.autoscale.scale-down-idle-samples:6}")
+    private int scaleDownIdleSamples;
+
+    @Value("${weather.consumer.autoscale.min-hit-rate:0.5}")
+    private double minHitRate;
+
+    // Последний замер (для метрик) и состояние между замерами: только поток планировщика
+    private volatile long queueDepth;
+    private volatile double hitRate = Double.NaN;
+    private volatile double latencyMillis;
+    private volatile int consumers;
+    private volatile int prefetch;
+    private CacheStats lastStats = CacheStats.empty();
+    private int idleSamples;
+
+    public ListenerAutoscaler(RabbitListenerEndpointRegistry listenerRegistry, AmqpAdmin amqpAdmin,
+                              WeatherApiClient weatherApiClient, UpstreamRateLimiter upstreamRateLimiter,
+                              MeterRegistry meterRegistry,
+                              @Value("${spring.rabbitmq.listener.simple.prefetch:250}") int initialPrefetch) {
+        this.prefetch = initialPrefetch;
+        this.listenerRegistry = listenerRegistry;
+        this.amqpAdmin = amqpAdmin;
+        this.weatherApiClient = weatherApiClient;
+        this.upstreamRateLimiter = upstreamRateLimiter;
+
+        Gauge.builder("weather.consumer.autoscale.consumers", this, scaler -> scaler.consumers)
+                .description("Concurrent consumers of the request listener").register(meterRegistry);
+        Gauge.builder("weather.consumer.autoscale.prefetch", this, scaler -> scaler.prefetch)
+                .description("Prefetch of the request listener").register(meterRegistry);
+        Gauge.builder("weather.consumer.autoscale.queue.depth", this, scaler -> scaler.queueDepth)
+                .description("Ready messages in the request queue").register(meterRegistry);
+        Gauge.builder("weather.consumer.autoscale.hit.rate", this, scaler -> scaler.hitRate)
+                .description("Weather cache hit rate over the last sample interval").register(meterRegistry);
+        Gauge.builder("weather.consumer.autoscale.latency", this, scaler -> scaler.latencyMillis)
+                .description("Mean request processing time over the last sample interval, ms").register(meterRegistry);
+        this.scaleUps = Counter.builder("weather.consumer.autoscale.decisions").tag("direction", "up")
+                .register(meterRegistry);
+        this.scaleDowns = Counter.builder("weather.consumer.autoscale.decisions").tag("direction", "down")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Учитывает время обработки одного сообщения (от получения до готовности ответа).
+     */
+    public void recordProcessingTime(long nanos) {
+        processedCount.increment();
+        processedNanos.add(nanos);
+    }
+
+    public void asyncRequestStarted() {
+        asyncInFlight.incrementAndGet();
+    }
+
+    public void asyncRequestFinished() {
+        asyncInFlight.decrementAndGet();
+    }
+
+    @Scheduled(fixedDelayString = "${weather.consumer.autoscale.interval:5s}")
+    public void sample() {
+        SimpleMessageListenerContainer container = activeContainer();
+        if (container == null) {
+            return;
+        }
+        consumers = container.getActiveConsumerCount();
+        sampleMetrics();
+        if (!enabled) {
+            return;
+        }
+
+        int currentConsumers = Math.max(consumers, minConsumers);
+        if (queueDepth > (long) scaleUpDepth * currentConsumers && consumers < maxConsumers && upstreamCanKeepUp()) {
+            idleSamples = 0;
+            resize(container, consumers + 1, Math.min(Math.max(prefetch, minPrefetch) * 2, maxPrefetch));
+            scaleUps.increment();
+            log.info("📈 Scaled request listener up: {} consumers, prefetch {} (queue depth {}, hit rate {}, latency {}ms)",
+                    consumers, prefetch, queueDepth, formatRate(), Math.round(latencyMillis));
+        } else if (queueDepth == 0 && ++idleSamples >= scaleDownIdleSamples && consumers > minConsumers
+                && asyncDrained()) {
+            idleSamples = 0;
+            resize(container, consumers - 1, Math.max(prefetch / 2, minPrefetch));
+            scaleDowns.increment();
+            log.info("📉 Scaled request listener down: {} consumers, prefetch {}", consumers, prefetch);
+        } else if (queueDepth > 0) {
+            idleSamples = 0;
+        }
+    }
+
+    /**
+     * Больше потребителей помогут, только если промахи не стоят в очереди к внешнему API
+     */
+    private boolean upstreamCanKeepUp() {
+        return Double.isNaN(hitRate) || hitRate >= minHitRate || upstreamRateLimiter.getWaitingCount() == 0;
+    }
+
+    /**
+     * Нет запросов, ожидающих разрешения, и нет неподтвержденных асинхронных сообщений
+     */
+    private boolean asyncDrained() {
+        return upstreamRateLimiter.getWaitingCount() == 0 && asyncInFlight.get() == 0;
+    }
+
+    private void sampleMetrics() {
+        QueueInformation info = amqpAdmin.getQueueInfo(requestQueueName);
+        queueDepth = info == null ? 0 : info.getMessageCount();
+
+        CacheStats stats = weatherApiClient.getCacheStats();
+        CacheStats interval = stats.minus(lastStats);
+        lastStats = stats;
+        hitRate = interval.requestCount() == 0 ? Double.NaN : interval.hitRate();
+
+        long count = processedCount.sumThenReset();
+        long nanos = processedNanos.sumThenReset();
+        latencyMillis = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos / count);
+    }
+
+    private void resize(SimpleMessageListenerContainer container, int newConsumers, int newPrefetch) {
+        prefetch = newPrefetch;
+        container.setPrefetchCount(newPrefetch);
+        // Число потребителей задает контроллер (max = concurrent отключает собственное
+        // масштабирование контейнера); max не может быть меньше concurrent
+        if (newConsumers > consumers) {
+            container.setMaxConcurrentConsumers(newConsumers);
+            container.setConcurrentConsumers(newConsumers);
+        } else {
+            container.setConcurrentConsumers(newConsumers);
+            container.setMaxConcurrentConsumers(newConsumers);
+        }
+        consumers = newConsumers;
+    }
+
+    /**
+     * Работающий контейнер: одиночный или пакетный слушатель (weather.consumer.batch.enabled)
+     */
+    private SimpleMessageListenerContainer activeContainer() {
+        for (String id : new String[]{SINGLE_LISTENER_ID, BATCH_LISTENER_ID}) {
+            MessageListenerContainer container = listenerRegistry.getListenerContainer(id);
+            if (container instanceof SimpleMessageListenerContainer simple && simple.isRunning()) {
+                return simple;
+            }
+        }
+        return null;
+    }
+
+    private String formatRate() {
+        return Double.isNaN(hitRate) ? "n/a" : String.format("%.2f", hitRate);
+    }
+}
@@ -1,6 +1,11 @@
 package com.weather.consumer.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rabbitmq.client.Channel;
+import com.weather.consumer.cache.CityPopularityTracker;
+import com.weather.consumer.client.UpstreamHttpException;
+import com.weather.consumer.client.UpstreamRateLimiter;
+import com.weather.consumer.client.UpstreamUnavailableException;
 import com.weather.consumer.client.WeatherApiClient;
 import com.weather.consumer.dto.OpenWeatherMapResponse;
 import com.weather.consumer.dto.WeatherMessage;
@@ -14,26 +19,60 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 
 /**
  * Сервис для обработки сообщений из очереди запросов.
- * Реализует синхронную обработку с задержкой между запросами.
- * 
+ * Реализует двухуровневую обработку: кэш и rate-limited запрос к API.
+ *
  * Алгоритм работы:
  * 1. Получает сообщение из очереди weather.request.queue
- * 2. Делает задержку (имитация rate limiting)
- * 3. Вызывает OpenWeatherMap API для получения данных о погоде
- * 4. Формирует ответное сообщение
- * 5. Отправляет ответ в очередь weather.response.queue
+ * 2. Проверяет кэш "weather": при попадании сразу отправляет ответ и подтверждает сообщение
+ * 3. При промахе запрашивает разрешение у UpstreamRateLimiter (без блокировки потока слушателя)
+ * 4. Получив разрешение, вызывает OpenWeatherMap API:
+ *    - конвейерный режим (weather.consumer.pipelined=true): асинхронным HTTP клиентом,
+ *      так что сотни сообщений из prefetch могут ждать ответа одновременно
+ *    - обычный режим: синхронным RestTemplate в пуле upstreamFetchExecutor
+ * 5. Формирует ответное сообщение и отправляет его в очередь weather.response.queue.{shard}
  * 6. Подтверждает обработку сообщения (manual acknowledgment)
+ *
+ * Временные ошибки API (weather.consumer.retry.enabled) не превращаются сразу в success=false:
+ * сообщение уходит в очередь отложенного повтора weather.request.retry.{attempt} с
+ * экспоненциальной задержкой и возвращается в очередь запросов; после последней попытки
+ * отправляется ответ success=false, а сообщение отклоняется в DLQ.
+ *
+ * Пакетный режим (weather.consumer.batch.enabled) дополнительно объединяет
+ * одинаковые города из разных корреляций внутри пакета.
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class WeatherConsumerService {
 
+    /**
+     * Заголовок с номером попытки отложенного повтора
+     */
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+
     private final WeatherApiClient weatherApiClient;
     private final RabbitTemplate rabbitTemplate;
+    private final UpstreamRateLimiter upstreamRateLimiter;
+    private final ExecutorService upstreamFetchExecutor;
+    private final ObjectMapper objectMapper;
+    private final CityPopularityTracker popularityTracker;
+    private final ListenerAutoscaler listenerAutoscaler;
 
     @Value("${rabbitmq.exchange.weather}")
     private String exchangeName;
@@ -41,88 +80,483 @@ public class WeatherConsumerService {
     @Value("${rabbitmq.routing-key.response}")
     private String responseRoutingKey;
 
-    @Value("${weather.api.delay}")
-    private long apiDelay;
+    @Value("${rabbitmq.shards.count}")
+    private int shardCount;
+
+    @Value("${weather.consumer.pipelined:true}")
+    private boolean pipelined;
+
+    @Value("${rabbitmq.routing-key.request}")
+    private String requestRoutingKey;
+
+    @Value("${weather.consumer.retry.enabled:true}")
+    private boolean retryEnabled;
+
+    @Value("${weather.consumer.retry.max-attempts:3}")
+    private int maxRetryAttempts;
 
     /**
      * Слушатель очереди запросов на получение погоды.
      * Использует ручное подтверждение (manual acknowledgment) для контроля обработки.
-     * 
-     * Параметры аннотации:
-     * - queues: имя очереди для прослушивания
-     * - ackMode: режим подтверждения (MANUAL для ручного управления)
-     * 
+     *
+     * Поток слушателя никогда не ждет rate limiter: при промахе кэша обработка
+     * продолжается асинхронно, а ack/nack выполняется после отправки ответа.
+     *
      * @param weatherMessage Сообщение с запросом на получение погоды
      * @param message Оригинальное AMQP сообщение (для подтверждения)
      * @param channel Канал RabbitMQ (для подтверждения)
      */
-    @RabbitListener(queues = "${rabbitmq.queue.request}")
+    @RabbitListener(id = ListenerAutoscaler.SINGLE_LISTENER_ID, queues = "${rabbitmq.queue.request}",
+            autoStartup = "#{!${weather.consumer.batch.enabled:false}}")
     public void consumeWeatherRequest(WeatherMessage weatherMessage, Message message, Channel channel) {
         log.info("Received weather request for city: {} (correlation ID: {})",
                 weatherMessage.getCity(), weatherMessage.getCorrelationId());
 
-        WeatherResponse response = new WeatherResponse();
-        response.setCorrelationId(weatherMessage.getCorrelationId());
-        response.setCity(weatherMessage.getCity());
-        response.setTotalCities(weatherMessage.getTotalCities());
-        response.setTimestamp(LocalDateTime.now());
+        long receivedAt = System.nanoTime();
+        popularityTracker.record(weatherMessage.getCity());
+        CompletableFuture<OpenWeatherMapResponse> weather =
+                resolveWeather(weatherMessage.getCity(), weatherMessage.getPriority());
+        weather.whenComplete((apiResponse, error) ->
+                listenerAutoscaler.recordProcessingTime(System.nanoTime() - receivedAt));
+
+        // Уровень 1: кэш или негативный кэш - ответ без ожидания rate limiter, прямо в потоке слушателя
+        if (weather.isDone()) {
+            log.debug("⚡ Resolved from cache for city: {}", weatherMessage.getCity());
+            weather.whenComplete((apiResponse, error) ->
+                    completeRequest(weatherMessage, apiResponse, error, message, channel));
+            return;
+        }
+
+        // Уровень 2: промах - ответ и ack выполняются в upstreamFetchExecutor,
+        // а не в потоке I/O HTTP клиента
+        // Пока ack не выполнен, автомасштабирование не останавливает потребителей (канал нужен для ack)
+        listenerAutoscaler.asyncRequestStarted();
+        weather.whenCompleteAsync((apiResponse, error) -> {
+            try {
+                completeRequest(weatherMessage, apiResponse, error, message, channel);
+            } finally {
+                listenerAutoscaler.asyncRequestFinished();
+            }
+        }, upstreamFetchExecutor);
+    }
+
+    /**
+     * Завершение обработки одного сообщения: временная ошибка отправляется
+     * на отложенный повтор, иначе публикуется ответ и сообщение подтверждается.
+     * После последней неудачной попытки ответ success=false публикуется,
+     * а сообщение отклоняется в DLQ.
+     */
+    private void completeRequest(WeatherMessage weatherMessage, OpenWeatherMapResponse apiResponse, Throwable error,
+                                 Message message, Channel channel) {
+        if (isRetryable(error)) {
+            if (scheduleRetry(weatherMessage, message)) {
+                ack(message, channel);
+                return;
+            }
+            if (retryEnabled) {
+                try {
+                    publishResponse(buildResponse(weatherMessage, apiResponse, error));
+                } catch (Exception e) {
+                    log.error("Error sending response for city {}: {}", weatherMessage.getCity(), e.getMessage());
+                }
+                nack(message, channel);
+                return;
+            }
+        }
+        sendResponse(buildResponse(weatherMessage, apiResponse, error), message, channel);
+    }
+
+    /**
+     * Пакетный слушатель очереди запросов (weather.consumer.batch.enabled=true).
+     *
+     * Под нагрузкой разные корреляции запрашивают одни и те же города почти одновременно.
+     * Пакет группируется по нормализованному названию города, каждый уникальный город
+     * разрешается один раз, а результат раздается отдельным WeatherResponse каждой корреляции.
+     * Весь пакет подтверждается одним basicAck(multiple=true) до наибольшего delivery tag,
+     * который не был отклонен по отдельности (nack такого тега закрыл бы канал).
+     *
+     * Пакет обрабатывается до конца в потоке слушателя: так multiple-ack
+     * гарантированно не подтвердит сообщения следующего пакета того же канала.
+     *
+     * @param messages Пакет AMQP сообщений (до weather.consumer.batch.size)
+     * @param channel Канал RabbitMQ (для подтверждения)
+     */
+    @RabbitListener(id = ListenerAutoscaler.BATCH_LISTENER_ID, queues = "${rabbitmq.queue.request}",
+            containerFactory = "batchContainerFactory", autoStartup = "${weather.consumer.batch.enabled:false}")
+    public void consumeWeatherRequestBatch(List<Message> messages, Channel channel) {
+        log.info("Received batch of {} weather requests", messages.size());
+        long receivedAt = System.nanoTime();
+
+        Map<String, List<WeatherMessage>> byCity = new LinkedHashMap<>();
+        Map<WeatherMessage, Message> originals = new IdentityHashMap<>();
+        // Теги, уже отклоненные по отдельности: их нельзя передавать в multiple-ack
+        Set<Long> nacked = new HashSet<>();
+
+        for (Message message : messages) {
+            try {
+                WeatherMessage weatherMessage = objectMapper.readValue(message.getBody(), WeatherMessage.class);
+                originals.put(weatherMessage, message);
+                popularityTracker.record(weatherMessage.getCity());
+                byCity.computeIfAbsent(WeatherApiClient.cacheKey(weatherMessage.getCity()), key -> new ArrayList<>())
+                        .add(weatherMessage);
+            } catch (Exception e) {
+                log.error("Cannot parse weather request, sending to DLQ: {}", e.getMessage());
+                nack(message, channel, nacked);
+            }
+        }
+
+        // Каждый уникальный город разрешается один раз
+        // Приоритет города - наибольший среди запросивших его корреляций
+        Map<String, String> citiesByKey = new LinkedHashMap<>();
+        Map<String, Integer> prioritiesByKey = new HashMap<>();
+        byCity.forEach((key, group) -> {
+            citiesByKey.put(key, group.get(0).getCity());
+            prioritiesByKey.put(key, group.stream().mapToInt(WeatherMessage::getPriority).max().orElse(0));
+        });
+        Map<String, CompletableFuture<OpenWeatherMapResponse>> resolved =
+                resolveWeatherBulk(citiesByKey, prioritiesByKey);
 
+        log.debug("Batch of {} messages resolved to {} distinct cities", originals.size(), resolved.size());
+
+        byCity.forEach((key, group) -> {
+            CompletableFuture<OpenWeatherMapResponse> weather = resolved.get(key);
+            OpenWeatherMapResponse apiResponse = null;
+            Throwable error = null;
+            try {
+                apiResponse = weather.join();
+            } catch (Exception e) {
+                error = e;
+            }
+            for (WeatherMessage weatherMessage : group) {
+                Message original = originals.get(weatherMessage);
+                // Отложенный повтор подтверждается вместе со всем пакетом
+                if (isRetryable(error) && scheduleRetry(weatherMessage, original)) {
+                    continue;
+                }
+                WeatherResponse response = buildResponse(weatherMessage, apiResponse, error);
+                try {
+                    publishResponse(response);
+                    if (retryEnabled && isRetryable(error)) {
+                        // Попытки исчерпаны: ответ отправлен, сообщение - в DLQ
+                        nack(original, channel, nacked);
+                    }
+                } catch (Exception e) {
+                    log.error("Error sending response for city {}: {}", response.getCity(), e.getMessage());
+                    nack(original, channel, nacked);
+                }
+            }
+        });
+
+        // Каждому сообщению - его доля времени пакета, чтобы среднее время обработки не росло с размером пакета
+        if (!originals.isEmpty()) {
+            long messageNanos = (System.nanoTime() - receivedAt) / originals.size();
+            originals.keySet().forEach(weatherMessage -> listenerAutoscaler.recordProcessingTime(messageNanos));
+        }
+
+        // Одно подтверждение на весь пакет: multiple=true до наибольшего неотклоненного delivery tag.
+        // Отклоненные теги внутри диапазона уже не ожидают подтверждения и пропускаются брокером.
+        long ackTag = messages.stream()
+                .mapToLong(message -> message.getMessageProperties().getDeliveryTag())
+                .filter(tag -> !nacked.contains(tag))
+                .max()
+                .orElse(-1);
+        if (ackTag < 0) {
+            return;
+        }
         try {
-            // Задержка для имитации rate limiting и предотвращения перегрузки API
-            log.debug("Applying delay of {} ms before API call", apiDelay);
-            Thread.sleep(apiDelay);
-
-            // Вызов Weather API
-            OpenWeatherMapResponse apiResponse = weatherApiClient.getWeatherForCity(weatherMessage.getCity());
-
-            // Заполнение успешного ответа
-            response.setSuccess(true);
-            response.setTemperature(apiResponse.getMain().getTemp());
-            response.setHumidity(apiResponse.getMain().getHumidity());
-            response.setWindSpeed(apiResponse.getWind().getSpeed());
-            
-            // Получение описания погоды (первый элемент из списка weather)
-            if (apiResponse.getWeather() != null && !apiResponse.getWeather().isEmpty()) {
-                response.setDescription(apiResponse.getWeather().get(0).getDescription());
+            channel.basicAck(ackTag, true);
+            log.debug("Batch of {} messages acknowledged ({} rejected individually)", messages.size(), nacked.size());
+        } catch (Exception e) {
+            log.error("Error acknowledging batch: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Двухуровневое получение погоды: кэш или негативный кэш (future уже завершен),
+     * иначе разрешение UpstreamRateLimiter и запрос к API.
+     */
+    private CompletableFuture<OpenWeatherMapResponse> resolveWeather(String city, int priority) {
+        OpenWeatherMapResponse cached = weatherApiClient.getCachedWeather(city);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        UpstreamHttpException knownFailure = weatherApiClient.getKnownFailure(city);
+        if (knownFailure != null) {
+            log.debug("🚫 NEGATIVE CACHE HIT for city: {}", city);
+            return CompletableFuture.failedFuture(knownFailure);
+        }
+        if (!weatherApiClient.isUpstreamAvailable()) {
+            // Цепь разомкнута: не ждем разрешения rate limiter ради заведомо отклоненного запроса
+            return staleOrFailure(city, new UpstreamUnavailableException("Weather API circuit breaker is open"));
+        }
+        return upstreamRateLimiter.acquire(priority)
+                .thenCompose(permit -> fetchWeatherAsync(city))
+                .exceptionallyCompose(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause()
+                            : error;
+                    return cause instanceof UpstreamUnavailableException
+                            ? staleOrFailure(city, cause)
+                            : CompletableFuture.failedFuture(cause);
+                });
+    }
+
+    /**
+     * Weather API недоступен: последний известный (устаревший) ответ, если он есть, иначе ошибка
+     */
+    private CompletableFuture<OpenWeatherMapResponse> staleOrFailure(String city, Throwable error) {
+        OpenWeatherMapResponse stale = weatherApiClient.getStaleWeather(city);
+        if (stale != null) {
+            log.warn("♻️ Serving stale weather for city {}: {}", city, error.getMessage());
+            return CompletableFuture.completedFuture(stale);
+        }
+        return CompletableFuture.failedFuture(error);
+    }
+
+    /**
+     * Разрешение нескольких уникальных городов пакета.
+     *
+     * Промахи кэша по городам с известным id объединяются в group запросы
+     * (до weather.api.group.max-size городов на одно разрешение rate limiter).
+     * Остальные города, а также города, которых не оказалось в ответе group запроса
+     * или пакет которых отклонен постоянной ошибкой, разрешаются по одному через resolveWeather().
+     * Временная ошибка group запроса (429, 5xx, таймаут, разомкнутая цепь) завершает
+     * все города пачки этой ошибкой, и они уходят в обычный путь повторов:
+     * одиночные запросы только умножили бы нагрузку на перегруженный API.
+     *
+     * @param citiesByKey ключ кэша -> название города
+     * @return ключ кэша -> future с данными о погоде
+     */
+    private Map<String, CompletableFuture<OpenWeatherMapResponse>> resolveWeatherBulk(
+            Map<String, String> citiesByKey, Map<String, Integer> prioritiesByKey) {
+        Map<String, CompletableFuture<OpenWeatherMapResponse>> resolved = new HashMap<>();
+        List<String> groupable = new ArrayList<>();
+        int groupMaxSize = weatherApiClient.getGroupMaxSize();
+
+        citiesByKey.forEach((key, city) -> {
+            OpenWeatherMapResponse cached = weatherApiClient.getCachedWeather(city);
+            if (cached != null) {
+                resolved.put(key, CompletableFuture.completedFuture(cached));
+            } else if (pipelined && groupMaxSize > 1 && weatherApiClient.getCityId(city) != null) {
+                groupable.add(city);
             } else {
-                response.setDescription("No description available");
+                resolved.put(key, resolveWeather(city, prioritiesByKey.get(key)));
             }
+        });
 
-            log.info("Successfully fetched weather for {}: {}°C, {}",
-                    weatherMessage.getCity(),
-                    response.getTemperature(),
-                    response.getDescription());
+        // Пачки с самыми приоритетными городами запрашиваются первыми
+        groupable.sort(Comparator.comparing((String city) -> prioritiesByKey.get(WeatherApiClient.cacheKey(city)))
+                .reversed());
 
-        } catch (InterruptedException e) {
-            log.error("Thread interrupted during delay: {}", e.getMessage());
-            Thread.currentThread().interrupt();
-            response.setSuccess(false);
-            response.setErrorMessage("Processing interrupted: " + e.getMessage());
+        for (int from = 0; from < groupable.size(); from += groupMaxSize) {
+            List<String> chunk = groupable.subList(from, Math.min(from + groupMaxSize, groupable.size()));
+            int chunkPriority = prioritiesByKey.get(WeatherApiClient.cacheKey(chunk.get(0)));
+            if (chunk.size() == 1) {
+                resolved.put(WeatherApiClient.cacheKey(chunk.get(0)), resolveWeather(chunk.get(0), chunkPriority));
+                continue;
+            }
+
+            CompletableFuture<Map<String, OpenWeatherMapResponse>> groupFuture = upstreamRateLimiter.acquire(chunkPriority)
+                    .thenCompose(permit -> weatherApiClient.getWeatherForCitiesAsync(chunk));
+
+            for (String city : chunk) {
+                String key = WeatherApiClient.cacheKey(city);
+                resolved.put(key, groupFuture
+                        .handle((result, error) -> {
+                            if (error == null) {
+                                return result.containsKey(key)
+                                        ? CompletableFuture.completedFuture(result.get(key))
+                                        : resolveWeather(city, prioritiesByKey.get(key));
+                            }
+                            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                    ? error.getCause()
+                                    : error;
+                            if (!isRetryable(cause)) {
+                                return resolveWeather(city, prioritiesByKey.get(key));
+                            }
+                            return cause instanceof UpstreamUnavailableException
+                                    ? staleOrFailure(city, cause)
+                                    : CompletableFuture.<OpenWeatherMapResponse>failedFuture(cause);
+                        })
+                        .thenCompose(Function.identity()));
+            }
+        }
+
+        return resolved;
+    }
 
+    /**
+     * Запрос к Weather API в зависимости от режима: асинхронный HTTP или RestTemplate в пуле потоков.
+     */
+    private CompletableFuture<OpenWeatherMapResponse> fetchWeatherAsync(String city) {
+        if (pipelined) {
+            return weatherApiClient.getWeatherForCityAsync(city);
+        }
+        return CompletableFuture.supplyAsync(() -> fetchWeather(city), upstreamFetchExecutor);
+    }
+
+    /**
+     * Синхронный вызов Weather API; checked исключения оборачиваются для CompletableFuture.
+     */
+    private OpenWeatherMapResponse fetchWeather(String city) {
+        try {
+            OpenWeatherMapResponse response = weatherApiClient.getWeatherForCity(city);
+            if (response == null) {
+                throw new IllegalStateException("Empty response from Weather API for " + city);
+            }
+            return response;
         } catch (Exception e) {
-            log.error("Error fetching weather for city {}: {}", weatherMessage.getCity(), e.getMessage());
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Формирует ответ по результату запроса к API (или ошибке).
+     */
+    private WeatherResponse buildResponse(WeatherMessage weatherMessage, OpenWeatherMapResponse apiResponse,
+                                          Throwable error) {
+        WeatherResponse response = new WeatherResponse();
+        response.setCorrelationId(weatherMessage.getCorrelationId());
+        response.setCity(weatherMessage.getCity());
+        response.setTotalCities(weatherMessage.getTotalCities());
+        response.setTimestamp(LocalDateTime.now());
+        response.setReplyTo(weatherMessage.getReplyTo());
+        response.setCityIndex(weatherMessage.getCityIndex());
+
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            log.error("Error fetching weather for city {}: {}", weatherMessage.getCity(), cause.getMessage());
             response.setSuccess(false);
-            response.setErrorMessage(e.getMessage());
+            response.setErrorMessage(cause.getMessage());
+            return response;
         }
 
+        // Заполнение успешного ответа
+        response.setSuccess(true);
+        response.setTemperature(apiResponse.getMain().getTemp());
+        response.setHumidity(apiResponse.getMain().getHumidity());
+        response.setWindSpeed(apiResponse.getWind().getSpeed());
+
+        // Получение описания погоды (первый элемент из списка weather)
+        if (apiResponse.getWeather() != null && !apiResponse.getWeather().isEmpty()) {
+            response.setDescription(apiResponse.getWeather().get(0).getDescription());
+        } else {
+            response.setDescription("No description available");
+        }
+
+        log.info("Successfully fetched weather for {}: {}°C, {}",
+                weatherMessage.getCity(),
+                response.getTemperature(),
+                response.getDescription());
+
+        return response;
+    }
+
+    /**
+     * Отправляет ответ в очередь шарда и подтверждает исходное сообщение.
+     * При ошибке отправки сообщение отклоняется без повторной постановки (уходит в DLQ).
+     */
+    private void sendResponse(WeatherResponse response, Message message, Channel channel) {
         try {
-            // Отправка ответа в очередь
-            log.debug("Sending weather response to queue for city: {}", weatherMessage.getCity());
-            rabbitTemplate.convertAndSend(exchangeName, responseRoutingKey, response);
+            publishResponse(response);
 
             // Подтверждение успешной обработки сообщения
             channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
-            log.debug("Message acknowledged for city: {}", weatherMessage.getCity());
+            log.debug("Message acknowledged for city: {}", response.getCity());
 
         } catch (Exception e) {
             log.error("Error sending response or acknowledging message: {}", e.getMessage());
-            try {
-                // В случае ошибки отклоняем сообщение и возвращаем в очередь, requeue=false отправит сообщение в DLQ
-                channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, false);
-                log.warn("Message sent to DLQ for city: {}", weatherMessage.getCity());
-            } catch (Exception nackException) {
-                log.error("Error sending NACK: {}", nackException.getMessage());
-            }
+            nack(message, channel);
         }
     }
+
+    /**
+     * Временная ошибка (не 400/404), которую может исправить повторный запрос.
+     */
+    private boolean isRetryable(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return !(cause instanceof UpstreamHttpException http && http.isPermanent());
+    }
+
+    /**
+     * Публикует запрос в очередь отложенного повтора следующей попытки
+     * с увеличенным заголовком x-retry-count.
+     *
+     * @return false, если повторы выключены, попытки исчерпаны или публикация не удалась
+     */
+    private boolean scheduleRetry(WeatherMessage weatherMessage, Message message) {
+        if (!retryEnabled) {
+            return false;
+        }
+        Object header = message.getMessageProperties().getHeader(RETRY_COUNT_HEADER);
+        int attempt = (header instanceof Number number ? number.intValue() : 0) + 1;
+        if (attempt > maxRetryAttempts) {
+            log.warn("Retries exhausted for city {} (correlation ID: {}) after {} attempts",
+                    weatherMessage.getCity(), weatherMessage.getCorrelationId(), maxRetryAttempts);
+            return false;
+        }
+        try {
+            rabbitTemplate.convertAndSend(exchangeName, requestRoutingKey + ".retry." + attempt, weatherMessage,
+                    retry -> {
+                        retry.getMessageProperties().setHeader(RETRY_COUNT_HEADER, attempt);
+                        retry.getMessageProperties().setPriority(weatherMessage.getPriority());
+                        return retry;
+                    });
+            log.info("🔁 Scheduled retry {}/{} for city {} (correlation ID: {})",
+                    attempt, maxRetryAttempts, weatherMessage.getCity(), weatherMessage.getCorrelationId());
+            return true;
+        } catch (Exception e) {
+            log.error("Error scheduling retry for city {}: {}", weatherMessage.getCity(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void ack(Message message, Channel channel) {
+        try {
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        } catch (Exception e) {
+            log.error("Error acknowledging message: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Отправка ответа в очередь шарда.
+     */
+    private void publishResponse(WeatherResponse response) {
+        log.debug("Sending weather response to queue for city: {}", response.getCity());
+        rabbitTemplate.convertAndSend(exchangeName, responseRoutingKey(response.getCorrelationId()), response);
+    }
+
+    /**
+     * Отклоняет сообщение пакета и запоминает его тег для последующего multiple-ack.
+     */
+    private void nack(Message message, Channel channel, Set<Long> nacked) {
+        nacked.add(message.getMessageProperties().getDeliveryTag());
+        nack(message, channel);
+    }
+
+    /**
+     * Отклоняет сообщение без повторной постановки: requeue=false отправит сообщение в DLQ.
+     */
+    private void nack(Message message, Channel channel) {
+        try {
+            channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, false);
+            log.warn("Message sent to DLQ: {}", message.getMessageProperties().getDeliveryTag());
+        } catch (Exception nackException) {
+            log.error("Error sending NACK: {}", nackException.getMessage());
+        }
+    }
+
+    /**
+     * Routing key шарда ответов: weather.response.{shard}.
+     * Все ответы одной корреляции попадают в один шард, а значит к одному агрегатору.
+     */
+    private String responseRoutingKey(String correlationId) {
+        return responseRoutingKey + "." + Math.floorMod(correlationId.hashCode(), shardCount);
+    }
 }
@@ -0,0 +1,42 @@
+package com.weather.consumer.client;
+
+import com.rabbitmq.client.Channel;
+import com.weather.consumer.dto.PermitLeaseGrant;
+import com.weather.consumer.dto.PermitLeaseRequest;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class PermitIssuerTest {
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+
+    @Test
+    void grantsWholeLeaseWithDefaultConfiguration() throws Exception {
+        PermitIssuer issuer = new PermitIssuer(rabbitTemplate, 1.0, 5, 5, Duration.ofSeconds(2));
+
+        issuer.onLeaseRequest(new PermitLeaseRequest("consumer-1", "reply.queue", 5),
+                new Message(new byte[0], new MessageProperties()), mock(Channel.class));
+
+        ArgumentCaptor<Object> grant = ArgumentCaptor.forClass(Object.class);
+        verify(rabbitTemplate).convertAndSend(eq(""), eq("reply.queue"), grant.capture());
+        assertThat(((PermitLeaseGrant) grant.getValue()).getPermits()).isEqualTo(5);
+    }
+
+    @Test
+    void rejectsLeaseLargerThanBucket() {
+        assertThatThrownBy(() -> new PermitIssuer(rabbitTemplate, 1.0, 1, 5, Duration.ofSeconds(2)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("lease-size");
+    }
+}
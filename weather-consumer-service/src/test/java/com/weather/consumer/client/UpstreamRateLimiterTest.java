@@ -0,0 +1,79 @@
+package com.weather.consumer.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class UpstreamRateLimiterTest {
+
+    private UpstreamRateLimiter rateLimiter;
+
+    @AfterEach
+    void shutdown() {
+        if (rateLimiter != null) {
+            rateLimiter.shutdown();
+        }
+    }
+
+    @Test
+    void servesWaitersByPriorityThenFifo() throws Exception {
+        rateLimiter = newRateLimiter(10.0, circuitBreaker(false, Duration.ofHours(1)));
+        // Единственное накопленное разрешение выдается сразу, остальные ждут пополнения
+        rateLimiter.acquire(0).get(1, TimeUnit.SECONDS);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> firstLow = rateLimiter.acquire(1).thenRun(() -> order.add("low-1"));
+        CompletableFuture<Void> high = rateLimiter.acquire(9).thenRun(() -> order.add("high"));
+        CompletableFuture<Void> secondLow = rateLimiter.acquire(1).thenRun(() -> order.add("low-2"));
+        assertThat(rateLimiter.getWaitingCount()).isEqualTo(3);
+
+        CompletableFuture.allOf(firstLow, high, secondLow).get(2, TimeUnit.SECONDS);
+
+        assertThat(order).containsExactly("high", "low-1", "low-2");
+        assertThat(rateLimiter.getWaitingCount()).isZero();
+    }
+
+    @Test
+    void rejectsWaitersWithoutSpendingPermitWhenCircuitIsOpen() throws Exception {
+        UpstreamCircuitBreaker circuitBreaker = circuitBreaker(true, Duration.ofMillis(200));
+        // Пополнение раз в 100 секунд: сразу выдать можно только накопленное разрешение
+        rateLimiter = newRateLimiter(0.01, circuitBreaker);
+        circuitBreaker.acquire();
+        circuitBreaker.release(new RuntimeException("upstream failure"));
+        assertThat(circuitBreaker.getState()).isEqualTo(UpstreamCircuitBreaker.State.OPEN);
+
+        CompletableFuture<Void> permit = rateLimiter.acquire(5);
+
+        assertThatThrownBy(() -> permit.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(UpstreamUnavailableException.class);
+
+        // После open-duration цепь пропускает пробный вызов, и он получает
+        // сохраненное разрешение сразу, не дожидаясь пополнения ведра
+        Thread.sleep(250);
+        assertThat(circuitBreaker.isCallPermitted()).isTrue();
+        rateLimiter.acquire(5).get(1, TimeUnit.SECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static UpstreamRateLimiter newRateLimiter(double permitsPerSecond, UpstreamCircuitBreaker circuitBreaker) {
+        AdaptiveUpstreamLimit adaptiveLimit = new AdaptiveUpstreamLimit(false, permitsPerSecond, 0.1, 10.0, 0.1,
+                4, 1, 20, 0.5, Duration.ofSeconds(2), Duration.ofSeconds(1));
+        return new UpstreamRateLimiter(permitsPerSecond, 1, mock(ObjectProvider.class), adaptiveLimit, circuitBreaker);
+    }
+
+    private static UpstreamCircuitBreaker circuitBreaker(boolean enabled, Duration openDuration) {
+        return new UpstreamCircuitBreaker(enabled, 50, 1, 1, openDuration, 1, 10);
+    }
+}
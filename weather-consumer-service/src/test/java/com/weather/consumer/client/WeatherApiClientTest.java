@@ -0,0 +1,215 @@
+package com.weather.consumer.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.weather.consumer.cache.MappedWeatherStore;
+import com.weather.consumer.cache.StoredWeather;
+import com.weather.consumer.config.CacheConfig;
+import com.weather.consumer.dto.OpenWeatherMapResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WeatherApiClientTest {
+
+    private final MappedWeatherStore l2Store = mock(MappedWeatherStore.class);
+    private final UpstreamRateLimiter rateLimiter = mock(UpstreamRateLimiter.class);
+    private final ExecutorService upstreamFetchExecutor = Executors.newSingleThreadExecutor();
+    private final CloseableHttpAsyncClient asyncHttpClient = HttpAsyncClients.custom()
+            .disableAutomaticRetries()
+            .build();
+
+    private final AtomicInteger groupCalls = new AtomicInteger();
+
+    private WeatherApiClient client;
+    private HttpServer groupEndpoint;
+    private int groupStatus = 200;
+    private String groupBody = "{\"list\":[]}";
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void createClient() {
+        asyncHttpClient.start();
+        ObjectProvider<WeatherApiClient> clientProvider = mock(ObjectProvider.class);
+        ObjectProvider<UpstreamRateLimiter> rateLimiterProvider = mock(ObjectProvider.class);
+        when(rateLimiterProvider.getObject()).thenReturn(rateLimiter);
+        // Фоновое обновление ждет разрешения, которое в тесте не выдается
+        when(rateLimiter.acquire()).thenReturn(new CompletableFuture<>());
+        when(l2Store.isEnabled()).thenReturn(true);
+
+        CacheConfig cacheConfig = new CacheConfig();
+        ReflectionTestUtils.setField(cacheConfig, "maximumSize", 100L);
+        ReflectionTestUtils.setField(cacheConfig, "refreshAfter", Duration.ofMinutes(4));
+        ReflectionTestUtils.setField(cacheConfig, "maxStaleness", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(cacheConfig, "negativeTtl", Duration.ofMinutes(2));
+        CacheManager cacheManager = cacheConfig.cacheManager(clientProvider, rateLimiterProvider);
+
+        AdaptiveUpstreamLimit adaptiveLimit = new AdaptiveUpstreamLimit(false, 1.0, 0.1, 10.0, 0.1,
+                4, 1, 20, 0.5, Duration.ofSeconds(2), Duration.ofSeconds(1));
+        UpstreamCircuitBreaker circuitBreaker = new UpstreamCircuitBreaker(true, 50, 20, 10,
+                Duration.ofSeconds(30), 3, 10);
+        client = new WeatherApiClient(mock(RestTemplate.class), asyncHttpClient, new ObjectMapper(), cacheManager,
+                l2Store, mock(ApplicationEventPublisher.class), adaptiveLimit, circuitBreaker, upstreamFetchExecutor);
+        when(clientProvider.getObject()).thenReturn(client);
+
+        ReflectionTestUtils.setField(client, "apiUrl", "http://localhost/data/2.5/weather");
+        ReflectionTestUtils.setField(client, "apiKey", "test-key");
+        ReflectionTestUtils.setField(client, "groupUrl", "http://localhost/data/2.5/group");
+        ReflectionTestUtils.setField(client, "groupMaxSize", 20);
+        ReflectionTestUtils.setField(client, "groupEnabled", true);
+        ReflectionTestUtils.setField(client, "gzip", false);
+        ReflectionTestUtils.setField(client, "refreshAfter", Duration.ofMinutes(4));
+        ReflectionTestUtils.setField(client, "maxStaleness", Duration.ofMinutes(10));
+    }
+
+    @AfterEach
+    void shutdown() throws Exception {
+        if (groupEndpoint != null) {
+            groupEndpoint.stop(0);
+        }
+        asyncHttpClient.close();
+        upstreamFetchExecutor.shutdownNow();
+    }
+
+    @Test
+    void l2HitKeepsItsAgeInL1() {
+        when(l2Store.get("moscow")).thenReturn(storedAgo(Duration.ofMinutes(3), "Moscow", 524901L));
+
+        assertThat(client.getCachedWeather("Moscow")).isNotNull();
+
+        assertThat(client.getCacheAge("Moscow")).isBetween(Duration.ofMinutes(3), Duration.ofMinutes(3).plusSeconds(5));
+        verify(rateLimiter, never()).acquire();
+    }
+
+    @Test
+    void l2HitOlderThanRefreshAfterIsRefreshed() {
+        when(l2Store.get("moscow")).thenReturn(storedAgo(Duration.ofMinutes(9), "Moscow", 524901L));
+
+        assertThat(client.getCachedWeather("Moscow")).isNotNull();
+
+        assertThat(client.getCacheAge("Moscow")).isGreaterThanOrEqualTo(Duration.ofMinutes(9));
+        verify(rateLimiter, timeout(1000)).acquire();
+    }
+
+    @Test
+    void l2RecordOlderThanMaxStalenessIsIgnored() {
+        when(l2Store.get("moscow")).thenReturn(storedAgo(Duration.ofMinutes(11), "Moscow", 524901L));
+
+        assertThat(client.getCachedWeather("Moscow")).isNull();
+
+        assertThat(client.getCacheAge("Moscow")).isNull();
+    }
+
+    @Test
+    void groupRequestReturnsAllCities() throws Exception {
+        startGroupEndpoint();
+        groupBody = groupJson(response("Moscow", 524901L), response("London", 2643743L));
+
+        Map<String, OpenWeatherMapResponse> result = client.getWeatherForCitiesAsync(List.of("Moscow", "London"))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(result).containsOnlyKeys("moscow", "london");
+        assertThat(result.get("london").getName()).isEqualTo("London");
+        assertThat(groupCalls).hasValue(1);
+    }
+
+    @Test
+    void groupRequestWithPartialListOmitsMissingCities() throws Exception {
+        startGroupEndpoint();
+        groupBody = groupJson(response("Moscow", 524901L));
+
+        Map<String, OpenWeatherMapResponse> result = client.getWeatherForCitiesAsync(List.of("Moscow", "London"))
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(result).containsOnlyKeys("moscow");
+    }
+
+    @Test
+    void throttledGroupRequestFailsWithOriginalCause() throws Exception {
+        startGroupEndpoint();
+        groupStatus = 429;
+        groupBody = "{\"cod\":429,\"message\":\"rate limit\"}";
+
+        CompletableFuture<Map<String, OpenWeatherMapResponse>> result =
+                client.getWeatherForCitiesAsync(List.of("Moscow", "London"));
+
+        assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .isInstanceOfSatisfying(UpstreamHttpException.class, http -> {
+                    assertThat(http.getStatusCode()).isEqualTo(429);
+                    assertThat(http.isPermanent()).isFalse();
+                });
+        assertThat(groupCalls).hasValue(1);
+    }
+
+    /**
+     * Поднимает заглушку group endpoint и сообщает клиенту id городов.
+     */
+    @SuppressWarnings("unchecked")
+    private void startGroupEndpoint() throws Exception {
+        groupEndpoint = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        groupEndpoint.createContext("/data/2.5/group", exchange -> {
+            groupCalls.incrementAndGet();
+            byte[] body = groupBody.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(groupStatus, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        groupEndpoint.start();
+        ReflectionTestUtils.setField(client, "groupUrl",
+                "http://localhost:" + groupEndpoint.getAddress().getPort() + "/data/2.5/group");
+        Map<String, Long> cityIds = (Map<String, Long>) ReflectionTestUtils.getField(client, "cityIds");
+        cityIds.put("moscow", 524901L);
+        cityIds.put("london", 2643743L);
+    }
+
+    private static String groupJson(OpenWeatherMapResponse... responses) throws Exception {
+        return new ObjectMapper().writeValueAsString(Map.of("cnt", responses.length, "list", List.of(responses)));
+    }
+
+    private static StoredWeather storedAgo(Duration age, String city, long id) {
+        return new StoredWeather(response(city, id), System.currentTimeMillis() - age.toMillis());
+    }
+
+    private static OpenWeatherMapResponse response(String city, long id) {
+        OpenWeatherMapResponse response = new OpenWeatherMapResponse();
+        response.setId(id);
+        response.setName(city);
+        OpenWeatherMapResponse.Main main = new OpenWeatherMapResponse.Main();
+        main.setTemp(12.5);
+        main.setHumidity(60);
+        response.setMain(main);
+        return response;
+    }
+}